@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the acceptor role of a single server, without any peer traffic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptorBenchmark extends WorkloadState {
+  private static final int SLOT_WINDOW = 1 << 16; // Accepted slots are reused so the log stays bounded
+
+  private Object acceptor;
+  private final AtomicInteger ballots = new AtomicInteger();
+  private final AtomicInteger slots = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUpWorkload() {
+    buildWorkload();
+  }
+
+  // A fresh acceptor per iteration keeps the increasing ballots of prepare() far from overflowing
+  @Setup(Level.Iteration)
+  public void setUpAcceptor() throws Throwable {
+    acceptor = Replicas.server(0, simulateFailures, false);
+    ballots.set(0);
+    slots.set(0);
+    Replicas.prepare(acceptor, Replicas.NUM_SERVERS + 1);
+  }
+
+  /**
+   * A promise for a ballot higher than any seen so far, as sent by a new leader.
+   */
+  @Benchmark
+  public int prepare() throws Throwable {
+    return Replicas.prepare(acceptor, (ballots.incrementAndGet() + 1) * Replicas.NUM_SERVERS + 1);
+  }
+
+  /**
+   * An accept under the promised ballot, as sent by a steady-state leader.
+   */
+  @Benchmark
+  public boolean accept() throws Throwable {
+    int slot = slots.getAndIncrement() & (SLOT_WINDOW - 1);
+    return Replicas.accept(acceptor, Replicas.NUM_SERVERS + 1, slot, randomPut());
+  }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end operations on an in-process cluster of 5 replicas wired together directly, the same
+ * way PaxosServerCreator wires them by default. Every operation enters through server 0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusterBenchmark extends WorkloadState {
+  @Param({"true", "false"})
+  public boolean multiPaxos;
+
+  @Param({"1"})
+  public int maxBatchSize;
+
+  private Object[] servers;
+
+  @Setup
+  public void setUpCluster() throws Throwable {
+    buildWorkload();
+    servers = Replicas.cluster(simulateFailures, multiPaxos, maxBatchSize, 1L);
+  }
+
+  /**
+   * A PUT proposed, chosen by a majority, learned by every replica and applied on server 0.
+   * Once a key exists its PUT is rejected by the store, but still takes a full consensus round.
+   */
+  @Benchmark
+  public Object proposePut() throws Throwable {
+    return Replicas.put(servers[0], randomKey(), value);
+  }
+
+  /**
+   * A GET, which the leader serves under its lease in multi-paxos mode and proposes otherwise.
+   */
+  @Benchmark
+  public Object proposeGet() throws Throwable {
+    return Replicas.get(servers[0], randomKey());
+  }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the learner role of a single server and of applying operations to its store.
+ * The store starts with every key of the key space.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LearnerBenchmark extends WorkloadState {
+  private Object learner;
+  private final AtomicInteger slots = new AtomicInteger();
+
+  @Setup
+  public void setUpLearner() throws Throwable {
+    buildWorkload();
+    learner = Replicas.server(0, simulateFailures, false);
+    for (String key : keys) {
+      Replicas.applyOperation(learner, Replicas.operation("PUT", key, value), 0);
+    }
+  }
+
+  /**
+   * Learning the next slot of the log and applying it, including periodic snapshots.
+   * Slots alternate between deleting and putting a random key so the store keeps its size.
+   */
+  @Benchmark
+  public Object learn() throws Throwable {
+    int slot = slots.getAndIncrement();
+    Object operation = (slot & 1) == 0 ? Replicas.operation("DELETE", randomKey(), null) : randomPut();
+    return Replicas.learn(learner, Replicas.NUM_SERVERS + 1, slot, operation);
+  }
+
+  @Benchmark
+  public Object applyGet() throws Throwable {
+    return Replicas.applyOperation(learner, Replicas.operation("GET", randomKey(), null), 0);
+  }
+
+  /**
+   * A delete followed by a put of the same key, the two state-changing operations.
+   */
+  @Benchmark
+  public Object applyDeleteThenPut() throws Throwable {
+    String key = randomKey();
+    Replicas.applyOperation(learner, Replicas.operation("DELETE", key, null), 0);
+    return Replicas.applyOperation(learner, Replicas.operation("PUT", key, value), 0);
+  }
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, with the GC profiler on so allocation per operation
+ * is reported next to throughput.
+ *
+ * <p>Usage: {@code java -Dthreads=1,4,16 -cp target/benchmarks.jar benchmarks.PaxosBenchmarkRunner [benchmark regex]}
+ */
+public class PaxosBenchmarkRunner {
+  public static void main(String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : "Benchmark";
+    for (String threads : System.getProperty("threads", "1,4,16").split(",")) {
+      Options options = new OptionsBuilder()
+          .include(include)
+          .threads(Integer.parseInt(threads.trim()))
+          .addProfiler(GCProfiler.class)
+          .build();
+      new Runner(options).run();
+    }
+  }
+}
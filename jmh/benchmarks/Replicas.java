@@ -0,0 +1,153 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the server classes from the benchmarks. JMH only generates code for benchmarks in a
+ * named package, and a named package cannot import the default package the server lives in, so
+ * the calls go through method handles. Handles held in static final fields are constants to the
+ * JIT and get inlined like direct calls, so they do not distort the measurements.
+ */
+final class Replicas {
+  static final int NUM_SERVERS = 5;
+
+  private static final Class<?> SERVER = load("Server");
+  private static final MethodHandle NEW_SERVER = constructor(SERVER, int.class, int.class, boolean.class, boolean.class);
+  private static final MethodHandle NEW_OPERATION = constructor(load("Server$Operation"), String.class, String.class, String.class);
+  private static final MethodHandle PREPARE = method("prepare", int.class);
+  private static final MethodHandle ACCEPT = method("accept", int.class, int.class, Object.class);
+  private static final MethodHandle LEARN = method("learn", int.class, int.class, Object.class);
+  private static final MethodHandle APPLY_OPERATION = method("applyOperation", Object.class, int.class, int.class);
+  private static final MethodHandle PUT = method("put", String.class, String.class);
+  private static final MethodHandle GET = method("get", String.class);
+  private static final MethodHandle SET_ACCEPTORS = method("setAcceptors", arrayOf("AcceptorInterface"));
+  private static final MethodHandle SET_LEARNERS = method("setLearners", arrayOf("LearnerInterface"));
+  private static final MethodHandle SET_PROPOSERS = method("setProposers", arrayOf("ProposerInterface"));
+  private static final MethodHandle SET_BATCHING = method("setBatching", int.class, long.class);
+
+  private Replicas() {
+  }
+
+  /**
+   * Create a server that is not connected to any peer.
+   */
+  static Object server(int serverId, boolean simulateFailures, boolean multiPaxos) throws Throwable {
+    Object server = NEW_SERVER.invokeExact(serverId, NUM_SERVERS, simulateFailures, multiPaxos);
+    SET_LEARNERS.invokeExact(server, Array.newInstance(load("LearnerInterface"), NUM_SERVERS));
+    return server;
+  }
+
+  /**
+   * Create servers wired to each other directly, as PaxosServerCreator does by default.
+   */
+  static Object[] cluster(boolean simulateFailures, boolean multiPaxos, int maxBatchSize, long maxBatchDelayMillis) throws Throwable {
+    Object[] servers = new Object[NUM_SERVERS];
+    for (int serverId = 0; serverId < NUM_SERVERS; serverId++) {
+      servers[serverId] = NEW_SERVER.invokeExact(serverId, NUM_SERVERS, simulateFailures, multiPaxos);
+      SET_BATCHING.invokeExact(servers[serverId], maxBatchSize, maxBatchDelayMillis);
+    }
+    for (int serverId = 0; serverId < NUM_SERVERS; serverId++) {
+      Object acceptors = Array.newInstance(load("AcceptorInterface"), NUM_SERVERS);
+      Object learners = Array.newInstance(load("LearnerInterface"), NUM_SERVERS);
+      Object proposers = Array.newInstance(load("ProposerInterface"), NUM_SERVERS);
+      for (int i = 0; i < NUM_SERVERS; i++) {
+        if (i != serverId) {
+          Array.set(acceptors, i, servers[i]);
+          Array.set(learners, i, servers[i]);
+          Array.set(proposers, i, servers[i]);
+        }
+      }
+      SET_ACCEPTORS.invokeExact(servers[serverId], acceptors);
+      SET_LEARNERS.invokeExact(servers[serverId], learners);
+      SET_PROPOSERS.invokeExact(servers[serverId], proposers);
+    }
+    return servers;
+  }
+
+  static Object operation(String type, String key, String value) throws Throwable {
+    return NEW_OPERATION.invokeExact(type, key, value);
+  }
+
+  static int prepare(Object server, int proposalId) throws Throwable {
+    return (int) PREPARE.invokeExact(server, proposalId);
+  }
+
+  static boolean accept(Object server, int proposalId, int slot, Object value) throws Throwable {
+    return (boolean) ACCEPT.invokeExact(server, proposalId, slot, value);
+  }
+
+  static Object learn(Object server, int proposalId, int slot, Object value) throws Throwable {
+    return LEARN.invokeExact(server, proposalId, slot, value);
+  }
+
+  static Object applyOperation(Object server, Object operation, int slot) throws Throwable {
+    return APPLY_OPERATION.invokeExact(server, operation, slot, 0);
+  }
+
+  static Object put(Object server, String key, String value) throws Throwable {
+    return PUT.invokeExact(server, key, value);
+  }
+
+  static Object get(Object server, String key) throws Throwable {
+    return GET.invokeExact(server, key);
+  }
+
+  private static Class<?> load(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Server classes are not on the class path", e);
+    }
+  }
+
+  private static Class<?> arrayOf(String componentName) {
+    return Array.newInstance(load(componentName), 0).getClass();
+  }
+
+  /**
+   * A constructor handle typed to return Object, so callers need not name the class.
+   */
+  private static MethodHandle constructor(Class<?> type, Class<?>... parameterTypes) {
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+      MethodHandle handle = MethodHandles.lookup().unreflectConstructor(accessible(constructor));
+      return handle.asType(handle.type().changeReturnType(Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A Server method handle with the receiver, the server-class parameters and a reference return
+   * type typed as Object.
+   */
+  private static MethodHandle method(String name, Class<?>... parameterTypes) {
+    try {
+      Method method = SERVER.getDeclaredMethod(name, parameterTypes);
+      MethodHandle handle = MethodHandles.lookup().unreflect(accessible(method));
+      MethodType erased = handle.type().changeParameterType(0, Object.class);
+      for (int i = 0; i < parameterTypes.length; i++) {
+        if (!parameterTypes[i].isPrimitive() && parameterTypes[i] != String.class) {
+          erased = erased.changeParameterType(i + 1, Object.class);
+        }
+      }
+      if (!erased.returnType().isPrimitive()) {
+        erased = erased.changeReturnType(Object.class);
+      }
+      return handle.asType(erased);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static <T extends AccessibleObject> T accessible(T member) {
+    member.setAccessible(true);
+    return member;
+  }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parameters and data shared by the benchmarks: the key space, the value written and whether
+ * acceptors simulate failures. Thread count is not a parameter here, JMH sets it with -t or
+ * PaxosBenchmarkRunner sweeps it. JMH gives no order between setup methods of a class and its
+ * superclass, so subclasses call {@link #buildWorkload()} from their own trial setup.
+ */
+@State(Scope.Benchmark)
+public abstract class WorkloadState {
+  @Param({"1000", "100000"})
+  public int keyCount;
+
+  @Param({"16", "1024"})
+  public int valueSize;
+
+  @Param({"false", "true"})
+  public boolean simulateFailures;
+
+  protected String[] keys;
+  protected String value;
+
+  protected void buildWorkload() {
+    keys = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keys[i] = "key" + i;
+    }
+    char[] chars = new char[valueSize];
+    Arrays.fill(chars, 'v');
+    value = new String(chars);
+  }
+
+  /**
+   * @return A key picked uniformly from the key space.
+   */
+  protected String randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+  }
+
+  /**
+   * @return A PUT of the benchmark value to a random key.
+   */
+  protected Object randomPut() throws Throwable {
+    return Replicas.operation("PUT", randomKey(), value);
+  }
+}
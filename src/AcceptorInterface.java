@@ -1,5 +1,6 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * The AcceptorInterface defines the remote methods to be implemented by the acceptors in the Paxos
@@ -8,7 +9,8 @@ import java.rmi.RemoteException;
 public interface AcceptorInterface extends Remote {
 
   /**
-   * Prepares the acceptor to receive a proposal with a given proposal ID.
+   * Prepares the acceptor to receive a proposal with a given proposal ID. The promise covers every
+   * slot of the replicated log.
    *
    * @param proposalId The unique ID of the proposal.
    * @return An integer response indicating the status or decision related to the proposal.
@@ -17,12 +19,24 @@ public interface AcceptorInterface extends Remote {
   int prepare(int proposalId) throws RemoteException;
 
   /**
-   * Accepts or rejects a proposal with the given proposal ID and value.
+   * Returns the values this acceptor has accepted at or above the given slot, so that a proposer
+   * that just completed phase 1 can propose them again.
+   *
+   * @param fromSlot The first log slot of interest.
+   * @return The accepted entries, in no particular order, or null if this acceptor already compacted
+   *         slots at or above fromSlot into a snapshot and the caller has to catch up first.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  List<LogEntry> acceptedEntries(int fromSlot) throws RemoteException;
+
+  /**
+   * Accepts or rejects a proposal with the given proposal ID and value for one log slot.
    *
    * @param proposalId The unique ID of the proposal.
+   * @param slot The log slot the value is proposed for.
    * @param proposalValue The value of the proposal.
    * @return A boolean indicating whether the proposal was accepted (true) or rejected (false).
    * @throws RemoteException If a remote communication error occurs.
    */
-  boolean accept(int proposalId, Object proposalValue) throws RemoteException;
+  boolean accept(int proposalId, int slot, Object proposalValue) throws RemoteException;
 }
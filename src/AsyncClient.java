@@ -0,0 +1,306 @@
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The AsyncClient sends key-value operations to the whole cluster without blocking the caller.
+ * Every operation returns a CompletableFuture right away. It keeps one NIO connection per server,
+ * and any number of operations from any number of threads can be in flight on it at once.
+ *
+ * <p>Each operation goes to the leader of the Paxos group that owns its key, as last reported by
+ * the servers, or to the next server in turn when the group has no stable leader. If the server
+ * cannot be reached, or answers NO_QUORUM or CONTENDED, the operation is retried on another server
+ * after a growing delay until its deadline. FAILED is a refusal that another attempt would only
+ * repeat, such as a write batch spanning several groups, so it completes the operation at once. A server that failed is skipped for a while. Once the
+ * deadline has passed the operation completes with the last answer received, or with TIMED_OUT if
+ * there was none. Futures never complete exceptionally.
+ *
+ * <p>A retried PUT or DELETE may already have been applied by an earlier attempt, one whose answer
+ * got lost or that answered NO_QUORUM or CONTENDED, which leave open whether the operation was
+ * chosen. It can then complete with ALREADY_EXISTS or NOT_FOUND. A multi-key operation goes to the
+ * leader for its first key and is retried as a whole if any of its keys got a retriable answer.
+ * A retried write batch that checks the versions of its keys cannot take effect twice: if the
+ * first attempt was applied, the retry fails with CONFLICT. Futures complete on the connection's
+ * reader thread, so callbacks that block should use the async variants of CompletableFuture.
+ */
+public class AsyncClient implements Closeable {
+  public static final long DEFAULT_DEADLINE_MILLIS = 10000L; // 10 seconds
+  private static final long ATTEMPT_TIMEOUT_MILLIS = 3000L; // 3 seconds
+  private static final long RETRY_DELAY_MILLIS = 10L;
+  private static final long MAX_RETRY_DELAY_MILLIS = 500L;
+  private static final long SUSPECT_MILLIS = 1000L; // How long a server that failed is skipped
+  private static final long LEADER_REFRESH_MILLIS = 1000L; // 1 second
+
+  private final NioPeer[] servers;
+  private final AtomicLongArray suspectUntilNanos;
+  private final long deadlineMillis;
+  private final ScheduledExecutorService timer;
+  private final AtomicInteger nextServer = new AtomicInteger();
+  private final AtomicBoolean refreshingLeaders = new AtomicBoolean();
+  private volatile int[] leaders = new int[0]; // Leader of each group, -1 for groups without one
+
+  /**
+   * Sends one attempt of an operation to a server.
+   */
+  @FunctionalInterface
+  private interface Attempt<T> {
+    CompletableFuture<T> send(NioPeer server, long timeoutMillis);
+  }
+
+  /**
+   * Constructor to create an AsyncClient. Connections are opened on first use.
+   * @param addresses Where each server accepts client operations, indexed by server ID.
+   * @param deadlineMillis How long an operation may take, retries included.
+   */
+  public AsyncClient(List<InetSocketAddress> addresses, long deadlineMillis) {
+    this.servers = new NioPeer[addresses.size()];
+    for (int i = 0; i < servers.length; i++) {
+      servers[i] = new NioPeer(addresses.get(i), ATTEMPT_TIMEOUT_MILLIS);
+    }
+    this.suspectUntilNanos = new AtomicLongArray(servers.length);
+    this.deadlineMillis = deadlineMillis;
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "async-client-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Leaders move when they fail or lose their lease, so follow them in the background
+    timer.scheduleWithFixedDelay(this::refreshLeaders, 0L, LEADER_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create an AsyncClient for the cluster of the given server, found through its RMI registry.
+   * @param host The host of the server registry.
+   * @param port The port of the server registry.
+   * @param deadlineMillis How long an operation may take, retries included.
+   * @return The client.
+   * @throws Exception If the server cannot be reached.
+   */
+  public static AsyncClient connect(String host, int port, long deadlineMillis) throws Exception {
+    Registry registry = LocateRegistry.getRegistry(host, port);
+    ClusterInterface cluster = (ClusterInterface) registry.lookup("KVStoreInterface");
+    return new AsyncClient(cluster.clientAddresses(), deadlineMillis);
+  }
+
+  /**
+   * @param key The key to read.
+   * @return OK with the value, NOT_FOUND, or an error status.
+   */
+  public CompletableFuture<OperationResult> get(String key) {
+    return execute(key, (server, timeoutMillis) -> server.getAsync(key, timeoutMillis), AsyncClient::isRetriable, AsyncClient::timedOut);
+  }
+
+  /**
+   * @param key The key to write.
+   * @param value The value to write.
+   * @return OK, ALREADY_EXISTS, or an error status.
+   */
+  public CompletableFuture<OperationResult> put(String key, String value) {
+    return execute(key, (server, timeoutMillis) -> server.putAsync(key, value, timeoutMillis), AsyncClient::isRetriable, AsyncClient::timedOut);
+  }
+
+  /**
+   * @param key The key to delete.
+   * @return OK, NOT_FOUND, or an error status.
+   */
+  public CompletableFuture<OperationResult> delete(String key) {
+    return execute(key, (server, timeoutMillis) -> server.deleteAsync(key, timeoutMillis), AsyncClient::isRetriable, AsyncClient::timedOut);
+  }
+
+  /**
+   * @param keys The keys to read.
+   * @return The result of each key, in the order of the keys.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiGet(List<String> keys) {
+    return executeMulti(keys, (server, timeoutMillis) -> server.multiGetAsync(keys, timeoutMillis));
+  }
+
+  /**
+   * @param entries The keys and values to write.
+   * @return The result of each key, in the order of the entries.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiPut(Map<String, String> entries) {
+    return executeMulti(List.copyOf(entries.keySet()), (server, timeoutMillis) -> server.multiPutAsync(entries, timeoutMillis));
+  }
+
+  /**
+   * @param keys The keys to delete.
+   * @return The result of each key, in the order of the keys.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiDelete(List<String> keys) {
+    return executeMulti(keys, (server, timeoutMillis) -> server.multiDeleteAsync(keys, timeoutMillis));
+  }
+
+  /**
+   * @param batch The writes to apply atomically, all to keys of one Paxos group.
+   * @return OK with the new version of the written keys, CONFLICT, or an error status.
+   */
+  public CompletableFuture<OperationResult> write(WriteBatch batch) {
+    List<String> keys = batch.keys();
+    return execute(keys.isEmpty() ? null : keys.get(0), (server, timeoutMillis) -> server.writeAsync(batch, timeoutMillis),
+        AsyncClient::isRetriable, AsyncClient::timedOut);
+  }
+
+  /**
+   * Send an operation of the load generator. Its PUT overwrites the key.
+   * @param type The operation type.
+   * @param key The key.
+   * @param value The value of a PUT, ignored otherwise.
+   * @return The result.
+   */
+  public CompletableFuture<OperationResult> execute(LoadGenerator.OperationType type, String key, String value) {
+    return switch (type) {
+      case GET -> get(key);
+      case PUT -> write(new WriteBatch().put(key, value));
+      case DELETE -> delete(key);
+    };
+  }
+
+  private CompletableFuture<Map<String, OperationResult>> executeMulti(List<String> keys, Attempt<Map<String, OperationResult>> attempt) {
+    return execute(keys.isEmpty() ? null : keys.get(0), attempt,
+        results -> results.values().stream().anyMatch(AsyncClient::isRetriable),
+        message -> {
+          Map<String, OperationResult> results = new LinkedHashMap<>();
+          for (String key : keys) {
+            results.put(key, timedOut(message));
+          }
+          return results;
+        });
+  }
+
+  private <T> CompletableFuture<T> execute(String key, Attempt<T> attempt, Predicate<T> retriable, Function<String, T> timedOut) {
+    Request<T> request = new Request<>(key, attempt, retriable, timedOut, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+    send(request, -1);
+    return request.result;
+  }
+
+  private <T> void send(Request<T> request, int avoid) {
+    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(request.deadlineNanos - System.nanoTime());
+    if (remainingMillis <= 0) {
+      request.result.complete(request.lastResult != null ? request.lastResult
+          : request.timedOut.apply("No server answered within " + deadlineMillis + " ms after "
+              + request.attempts + " attempts, last failure: " + request.lastFailure));
+      return;
+    }
+    int target = pickServer(request.key, avoid);
+    request.attempts++;
+    request.attempt.send(servers[target], Math.min(remainingMillis, ATTEMPT_TIMEOUT_MILLIS)).whenComplete((result, error) -> {
+      if (error == null && !request.retriable.test(result)) {
+        request.result.complete(result);
+        return;
+      }
+      if (error != null) {
+        request.lastFailure = (error instanceof CompletionException && error.getCause() != null ? error.getCause() : error).getMessage();
+        suspectUntilNanos.set(target, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SUSPECT_MILLIS));
+      } else {
+        request.lastResult = result;
+        request.lastFailure = result.toString();
+      }
+      // The leader may have moved, ask again before the retry is sent
+      refreshLeaders();
+      long delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min(request.attempts, 6));
+      delayMillis = Math.max(0L, Math.min(delayMillis, TimeUnit.NANOSECONDS.toMillis(request.deadlineNanos - System.nanoTime())));
+      timer.schedule(() -> send(request, target), delayMillis, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  private static boolean isRetriable(OperationResult result) {
+    // TIMED_OUT means the operation was chosen and will still be applied, so it is not sent again,
+    // and FAILED is a refusal that every server would repeat
+    OperationResult.Status status = result.getStatus();
+    return status == OperationResult.Status.NO_QUORUM || status == OperationResult.Status.CONTENDED;
+  }
+
+  private static OperationResult timedOut(String message) {
+    return OperationResult.failed(OperationResult.Status.TIMED_OUT, message);
+  }
+
+  /**
+   * Pick the leader of the key's group if it is known and healthy, or else the next healthy server
+   * in turn, other than the one that just failed. A null key always picks the next server in turn.
+   */
+  private int pickServer(String key, int avoid) {
+    long now = System.nanoTime();
+    int[] known = leaders;
+    if (key != null && known.length > 0) {
+      int leader = known[ShardedServer.groupOf(key, known.length)];
+      if (leader >= 0 && leader < servers.length && leader != avoid && !isSuspect(leader, now)) {
+        return leader;
+      }
+    }
+    int start = Math.floorMod(nextServer.getAndIncrement(), servers.length);
+    for (int i = 0; i < servers.length; i++) {
+      int candidate = (start + i) % servers.length;
+      if (candidate != avoid && !isSuspect(candidate, now)) {
+        return candidate;
+      }
+    }
+    // Every server failed recently, try the next one anyway
+    return servers.length == 1 ? 0 : (avoid + 1) % servers.length;
+  }
+
+  private boolean isSuspect(int server, long now) {
+    return now - suspectUntilNanos.get(server) < 0;
+  }
+
+  private void refreshLeaders() {
+    if (!refreshingLeaders.compareAndSet(false, true)) {
+      return;
+    }
+    int server = pickServer(null, -1);
+    servers[server].leadersAsync(ATTEMPT_TIMEOUT_MILLIS).whenComplete((reported, error) -> {
+      if (reported != null) {
+        leaders = reported;
+      } else {
+        suspectUntilNanos.set(server, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SUSPECT_MILLIS));
+      }
+      refreshingLeaders.set(false);
+    });
+  }
+
+  @Override
+  public void close() {
+    timer.shutdownNow();
+    for (NioPeer server : servers) {
+      server.close();
+    }
+  }
+
+  /**
+   * One client operation across its attempts. Attempts run one after the other, each started by
+   * the completion of the previous one, so the fields need no locking.
+   */
+  private static class Request<T> {
+    final String key;
+    final Attempt<T> attempt;
+    final Predicate<T> retriable;
+    final Function<String, T> timedOut;
+    final long deadlineNanos;
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    int attempts;
+    T lastResult;
+    String lastFailure;
+
+    Request(String key, Attempt<T> attempt, Predicate<T> retriable, Function<String, T> timedOut, long deadlineNanos) {
+      this.key = key;
+      this.attempt = attempt;
+      this.retriable = retriable;
+      this.timedOut = timedOut;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The AsyncLogger takes log output off the threads that run consensus. Logging a message only
+ * copies its fields into a preallocated slot of a bounded ring buffer, it never formats, locks or
+ * writes to the console. A background thread drains the buffer, formats each event and writes
+ * them to standard output together. When the buffer is full new events are dropped and counted,
+ * so a slow console can never stall a proposer or an acceptor.
+ * <p>
+ * Each event has a level, the time it was logged, a source such as {@code Server 2} and a message.
+ * Events at {@link Level#INFO} print as {@code <timestamp>, <source> <message>}, other levels as
+ * {@code <timestamp>, <LEVEL> <source> <message>}. The lowest level printed is set with
+ * {@code -Dpaxos.log.level} (default INFO) and the buffer size with {@code -Dpaxos.log.buffer}
+ * (default 8192 events).
+ */
+public final class AsyncLogger {
+  private static final Level MIN_LEVEL = Level.valueOf(System.getProperty("paxos.log.level", "INFO").toUpperCase());
+  private static final int BUFFER_SIZE = Integer.getInteger("paxos.log.buffer", 8192);
+  private static final RingBuffer BUFFER = new RingBuffer(BUFFER_SIZE);
+
+  private final String source;
+
+  /**
+   * Log levels, from the most to the least verbose.
+   */
+  public enum Level {
+    DEBUG, INFO, WARN, ERROR
+  }
+
+  private AsyncLogger(String source) {
+    this.source = source;
+  }
+
+  /**
+   * @param source The name printed in front of every message of this logger, or null for none.
+   * @return A logger for the given source.
+   */
+  public static AsyncLogger forSource(String source) {
+    return new AsyncLogger(source);
+  }
+
+  /**
+   * @param level The level to check.
+   * @return True if messages at this level are printed, so callers can skip building them otherwise.
+   */
+  public boolean isEnabled(Level level) {
+    return level.compareTo(MIN_LEVEL) >= 0;
+  }
+
+  public void debug(String message) {
+    log(Level.DEBUG, message, null);
+  }
+
+  public void info(String message) {
+    log(Level.INFO, message, null);
+  }
+
+  public void warn(String message) {
+    log(Level.WARN, message, null);
+  }
+
+  public void error(String message, Throwable error) {
+    log(Level.ERROR, message, error);
+  }
+
+  /**
+   * Queue a message for printing without waiting for it to be written.
+   * @param level The level of the message.
+   * @param message The message.
+   * @param error An error to print after the message, or null.
+   */
+  public void log(Level level, String message, Throwable error) {
+    if (isEnabled(level)) {
+      BUFFER.offer(System.currentTimeMillis(), level, source, message, error);
+    }
+  }
+
+  /**
+   * @return The number of events dropped because the buffer was full.
+   */
+  public static long getDroppedEvents() {
+    return BUFFER.dropped.sum();
+  }
+
+  /**
+   * Wait until every event queued so far has been written, for at most the given time.
+   * @param timeoutMillis The longest time to wait.
+   */
+  public static void flush(long timeoutMillis) {
+    BUFFER.awaitDrained(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+  }
+
+  /**
+   * A multi-producer, single-consumer ring of preallocated events. Every slot carries a sequence
+   * number telling whether it is free for the producer at a given position or holds an event for
+   * the consumer, so producers only contend on one compare-and-set of the tail.
+   */
+  private static final class RingBuffer {
+    private static final int MAX_EVENTS_PER_WRITE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Event[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong drained = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    RingBuffer(int minimumSize) {
+      int size = Integer.highestOneBit(Math.max(2, minimumSize - 1)) << 1;
+      this.events = new Event[size];
+      this.sequences = new AtomicLongArray(size);
+      this.mask = size - 1;
+      for (int i = 0; i < size; i++) {
+        events[i] = new Event();
+        sequences.set(i, i);
+      }
+      Thread writer = new Thread(this::drainLoop, "async-logger");
+      writer.setDaemon(true);
+      writer.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> awaitDrained(TimeUnit.SECONDS.toNanos(1))));
+    }
+
+    void offer(long timeMillis, Level level, String source, String message, Throwable error) {
+      long position = tail.get();
+      int index;
+      while (true) {
+        index = (int) position & mask;
+        long difference = sequences.get(index) - position;
+        if (difference == 0) {
+          if (tail.compareAndSet(position, position + 1)) {
+            break;
+          }
+          position = tail.get();
+        } else if (difference < 0) {
+          // The consumer has not freed this slot yet, the buffer is full
+          dropped.increment();
+          return;
+        } else {
+          position = tail.get();
+        }
+      }
+      Event event = events[index];
+      event.timeMillis = timeMillis;
+      event.level = level;
+      event.source = source;
+      event.message = message;
+      event.error = error;
+      sequences.lazySet(index, position + 1);
+    }
+
+    private void drainLoop() {
+      StringBuilder text = new StringBuilder(64 * 1024);
+      long head = 0L;
+      long reportedDrops = 0L;
+      while (true) {
+        int count = 0;
+        while (count < MAX_EVENTS_PER_WRITE) {
+          int index = (int) head & mask;
+          if (sequences.get(index) != head + 1) {
+            break;
+          }
+          Event event = events[index];
+          event.appendTo(text);
+          event.clear();
+          sequences.lazySet(index, head + events.length);
+          head++;
+          count++;
+        }
+        long drops = dropped.sum();
+        if (drops > reportedDrops) {
+          text.append(Utils.getCurrentTimestamp()).append(", WARN ").append(drops - reportedDrops)
+              .append(" log events dropped, the log buffer is full\n");
+          reportedDrops = drops;
+        }
+        if (text.length() > 0) {
+          // One write per batch of events instead of one per line
+          System.out.print(text);
+          text.setLength(0);
+        }
+        drained.set(head);
+        if (count == 0) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+      }
+    }
+
+    void awaitDrained(long timeoutNanos) {
+      long target = tail.get();
+      long deadline = System.nanoTime() + timeoutNanos;
+      while (drained.get() < target && System.nanoTime() < deadline) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  /**
+   * A mutable log event, one per ring slot, reused for every message that passes through the slot.
+   */
+  private static final class Event {
+    long timeMillis;
+    Level level;
+    String source;
+    String message;
+    Throwable error;
+
+    void appendTo(StringBuilder text) {
+      text.append(Utils.formatTimestamp(timeMillis)).append(", ");
+      if (level != Level.INFO) {
+        text.append(level).append(' ');
+      }
+      if (source != null) {
+        text.append(source).append(' ');
+      }
+      text.append(message);
+      if (error != null) {
+        text.append(": ").append(error);
+      }
+      text.append('\n');
+    }
+
+    void clear() {
+      level = null;
+      source = null;
+      message = null;
+      error = null;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A group of client operations proposed together as the value of a single log slot. Learners apply
+ * the whole batch in one step and return one result per operation, in the same order.
+ */
+public class Batch implements Serializable {
+  private static final long serialVersionUID = 1L;
+  final List<Object> operations;
+
+  /**
+   * Constructor to create a Batch.
+   * @param operations The operations in the order they should be applied.
+   */
+  Batch(List<Object> operations) {
+    this.operations = operations;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Batch && operations.equals(((Batch) other).operations);
+  }
+
+  @Override
+  public int hashCode() {
+    return operations.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "BATCH of " + operations.size() + " " + operations;
+  }
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct buffers for socket I/O. Direct buffers are expensive to allocate
+ * and are only freed by the garbage collector, so the transport reuses them. Frames that do not fit
+ * a pooled buffer get a one-off heap buffer instead.
+ */
+public class BufferPool {
+  private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final int bufferSize;
+  private final int maxPooled;
+
+  /**
+   * Constructor to create a BufferPool.
+   * @param bufferSize The capacity of each pooled buffer.
+   * @param maxPooled The most idle buffers kept for reuse.
+   */
+  public BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Take a cleared buffer with at least the given capacity.
+   * @param capacity The capacity needed.
+   * @return A pooled direct buffer, or a heap buffer if the capacity exceeds the pooled size.
+   */
+  public ByteBuffer acquire(int capacity) {
+    if (capacity > bufferSize) {
+      return ByteBuffer.allocate(capacity);
+    }
+    ByteBuffer buffer = free.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    pooled.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Return a buffer obtained from {@link #acquire(int)}. Heap buffers are simply dropped.
+   * @param buffer The buffer to return.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer.isDirect() && buffer.capacity() == bufferSize && pooled.incrementAndGet() <= maxPooled) {
+      free.offer(buffer);
+    } else if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+      pooled.decrementAndGet();
+    }
+  }
+}
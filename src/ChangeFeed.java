@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ChangeFeed keeps the most recent writes and deletes one server applied, in log order, for
+ * watchers to read. The learner appends to it as it applies the log and never waits on a watcher:
+ * the feed is a fixed-size ring, and a watcher reads it at its own pace with long polls. A watcher
+ * that falls behind by more than the ring holds loses the oldest changes and is told so, instead
+ * of making the server buffer for it. An idle watcher costs one parked thread and nothing else.
+ */
+public class ChangeFeed {
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  private final WatchBatch.Change[] ring;
+  private int start; // Index of the oldest change
+  private int size;
+  private long floor = -1L; // Changes up to this version are no longer retained
+  private long latest = -1L; // Version of the newest change
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition appended = lock.newCondition();
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Constructor to create a ChangeFeed.
+   * @param capacity The number of changes retained.
+   */
+  public ChangeFeed(int capacity) {
+    this.ring = new WatchBatch.Change[Math.max(1, capacity)];
+  }
+
+  /**
+   * Record a change. Called by the learner, in log order.
+   * @param key The key written or deleted.
+   * @param value The new value, null for a delete.
+   * @param version The version of the write or delete.
+   */
+  public void append(String key, String value, long version) {
+    lock.lock();
+    try {
+      if (size == ring.length) {
+        floor = ring[start].getVersion();
+        ring[start] = null;
+        start = (start + 1) % ring.length;
+        size--;
+      }
+      ring[(start + size) % ring.length] = new WatchBatch.Change(key, value, version);
+      size++;
+      latest = version;
+      appended.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Forget every change up to a version, because the state jumped there without applying them,
+   * as when a snapshot is installed.
+   * @param version The version the state now reflects.
+   */
+  public void reset(long version) {
+    lock.lock();
+    try {
+      Arrays.fill(ring, null);
+      start = 0;
+      size = 0;
+      floor = Math.max(floor, version);
+      latest = Math.max(latest, version);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Run an action after every change, to wake watchers that wait on several feeds at once. The
+   * action runs on the learner's thread and must not block.
+   * @param listener The action.
+   */
+  public void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Read the changes to keys with a prefix after a version, waiting for one if there is none yet.
+   * @param prefix The key prefix to match, empty for every key.
+   * @param after The version the caller has seen changes up to, or {@link WatchBatch#NOW}.
+   * @param maxChanges The most changes to return.
+   * @param timeoutMillis How long to wait for a change, 0 not to wait.
+   * @return The changes with a one-entry cursor.
+   */
+  public WatchBatch read(String prefix, long after, int maxChanges, long timeoutMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    List<WatchBatch.Change> changes = new ArrayList<>();
+    boolean compacted = false;
+    lock.lock();
+    try {
+      if (after == WatchBatch.NOW) {
+        after = latest;
+      } else if (after < floor) {
+        // The changes right after the cursor are gone, skip to what is retained
+        compacted = true;
+        after = floor;
+      }
+      while (true) {
+        after = collect(prefix, after, maxChanges, changes);
+        long remaining = deadline - System.nanoTime();
+        if (!changes.isEmpty() || compacted || remaining <= 0L) {
+          break;
+        }
+        appended.awaitNanos(remaining);
+        if (after < floor) {
+          // So many changes came while waiting that some were dropped before they could be read
+          compacted = true;
+          after = floor;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      lock.unlock();
+    }
+    return new WatchBatch(changes, new long[] {after}, compacted);
+  }
+
+  /**
+   * Copy the matching changes after a version. Must be called while holding the lock.
+   * @return The version the changes were scanned up to.
+   */
+  private long collect(String prefix, long after, int maxChanges, List<WatchBatch.Change> into) {
+    // Versions grow along the ring, so binary search for the first change after the cursor
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ring[(start + middle) % ring.length].getVersion() <= after) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    long scanned = after;
+    for (int i = low; i < size; i++) {
+      WatchBatch.Change change = ring[(start + i) % ring.length];
+      if (into.size() >= maxChanges && change.getVersion() != scanned) {
+        // The parts of a batch share a version, so a page never ends inside one
+        break;
+      }
+      if (change.getKey().startsWith(prefix)) {
+        into.add(change);
+      }
+      scanned = change.getVersion();
+    }
+    return scanned;
+  }
+}
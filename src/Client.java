@@ -1,12 +1,24 @@
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class Client {
+  private static final int DUMP_PAGE_SIZE = 100;
+  private final String host;
+  private final int port;
   private KVStoreInterface server;
+  private AsyncClient cluster; // Created on first use
 
   // Constructor to initialize the client by looking up the remote KVStoreInterface
   public Client(String host, int basePort) throws Exception {
+    this.host = host;
+    this.port = basePort;
+
     // Get the RMI registry on the specified host and port
     Registry registry = LocateRegistry.getRegistry(host, basePort);
 
@@ -14,13 +26,21 @@ public class Client {
     server = (KVStoreInterface) registry.lookup("KVStoreInterface");
   }
 
+  // The asynchronous client for the whole cluster, which fails over when a server is down
+  private synchronized AsyncClient cluster() throws Exception {
+    if (cluster == null) {
+      cluster = AsyncClient.connect(host, port, AsyncClient.DEFAULT_DEADLINE_MILLIS);
+    }
+    return cluster;
+  }
+
   // Method to perform a GET operation and return the result
   public String get(String key) {
     try {
-      // Invoke the remote GET method on the server
-      return server.get(key);
-    } catch (RemoteException e) {
-      // Handle RemoteException if the operation fails
+      // Send the GET to the leader of the key, or to another server if it fails
+      return Utils.getCurrentTimestamp() + ", GET " + key + ": " + cluster().get(key).join();
+    } catch (Exception e) {
+      // Handle the failure to find the cluster
       return "GET operation failed: " + e.getMessage();
     }
   }
@@ -28,10 +48,10 @@ public class Client {
   // Method to perform a PUT operation and return the result
   public String put(String key, String value) {
     try {
-      // Invoke the remote PUT method on the server
-      return server.put(key, value);
-    } catch (RemoteException e) {
-      // Handle RemoteException if the operation fails
+      // Send the PUT to the leader of the key, or to another server if it fails
+      return Utils.getCurrentTimestamp() + ", PUT " + key + ": " + cluster().put(key, value).join();
+    } catch (Exception e) {
+      // Handle the failure to find the cluster
       return "PUT operation failed: " + e.getMessage();
     }
   }
@@ -39,21 +59,120 @@ public class Client {
   // Method to perform a DELETE operation and return the result
   public String delete(String key) {
     try {
-      // Invoke the remote DELETE method on the server
-      return server.delete(key);
-    } catch (RemoteException e) {
-      // Handle RemoteException if the operation fails
+      // Send the DELETE to the leader of the key, or to another server if it fails
+      return Utils.getCurrentTimestamp() + ", DELETE " + key + ": " + cluster().delete(key).join();
+    } catch (Exception e) {
+      // Handle the failure to find the cluster
       return "DELETE operation failed: " + e.getMessage();
     }
   }
 
+  // Method to read many keys in one consensus round
+  public String multiGet(List<String> keys) {
+    try {
+      return Utils.getCurrentTimestamp() + ", MGET " + keys + ": " + cluster().multiGet(keys).join();
+    } catch (Exception e) {
+      return "MGET operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to write many keys in one consensus round
+  public String multiPut(Map<String, String> entries) {
+    try {
+      return Utils.getCurrentTimestamp() + ", MPUT " + entries.keySet() + ": " + cluster().multiPut(entries).join();
+    } catch (Exception e) {
+      return "MPUT operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to delete many keys in one consensus round
+  public String multiDelete(List<String> keys) {
+    try {
+      return Utils.getCurrentTimestamp() + ", MDELETE " + keys + ": " + cluster().multiDelete(keys).join();
+    } catch (Exception e) {
+      return "MDELETE operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to set a key only if it still has the given version, -1 for a key that must not exist
+  public String compareAndSet(String key, long expectedVersion, String value) {
+    try {
+      return Utils.getCurrentTimestamp() + ", CAS " + key + ": " + cluster().write(new WriteBatch().put(key, value, expectedVersion)).join();
+    } catch (Exception e) {
+      return "CAS operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to list one page of the server's store, starting after the given key
+  public String dump(String afterKey) {
+    try {
+      StorePage page = server.dump(afterKey, DUMP_PAGE_SIZE);
+      StringBuilder text = new StringBuilder(Utils.getCurrentTimestamp() + ", " + page.getEntries().size() + " entries:");
+      page.getEntries().forEach((key, value) -> text.append("\n  ").append(key).append(" = ").append(value));
+      if (page.getNextKey() != null) {
+        text.append("\nMore entries follow, continue with: DUMP ").append(page.getNextKey());
+      }
+      return text.toString();
+    } catch (RemoteException e) {
+      return "DUMP operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to print the changes to keys with a prefix for a while, resuming from a saved cursor if given
+  public String watch(String prefix, long seconds, long[] cursor) {
+    WatchStream stream = new WatchStream(server, prefix, cursor);
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+    try {
+      long remaining;
+      while ((remaining = (end - System.nanoTime()) / 1_000_000L) > 0) {
+        for (WatchBatch.Change change : stream.next(remaining)) {
+          System.out.println(Utils.getCurrentTimestamp() + ", WATCH " + prefix + ": " + change);
+        }
+        if (stream.checkMissedChanges()) {
+          System.out.println(Utils.getCurrentTimestamp() + ", WATCH " + prefix + ": fell behind and missed changes, read the keys again");
+        }
+      }
+    } catch (RemoteException e) {
+      return "WATCH operation failed: " + e.getMessage() + ", resume with cursor " + formatCursor(stream.getCursor());
+    }
+    return Utils.getCurrentTimestamp() + ", WATCH " + prefix + " stopped, resume with: WATCH " + prefix + " <seconds> " + formatCursor(stream.getCursor());
+  }
+
+  private static String formatCursor(long[] cursor) {
+    return cursor == null ? "" : Arrays.stream(cursor).mapToObj(Long::toString).collect(Collectors.joining(","));
+  }
+
+  // Method to change the acceptors and quorum sizes of every Paxos group
+  public String reconfigure(List<Integer> members, int phaseTwoQuorum) {
+    try {
+      List<OperationResult> results = ((ClusterInterface) server).reconfigure(members, phaseTwoQuorum);
+      return Utils.getCurrentTimestamp() + ", RECONFIG " + members + " phase 2 quorum " + phaseTwoQuorum + ": " + results;
+    } catch (RemoteException e) {
+      return "RECONFIG operation failed: " + e.getMessage();
+    }
+  }
+
+  // Method to perform an operation of the load generator, letting remote failures through. PUT overwrites the key.
+  public OperationResult execute(LoadGenerator.OperationType type, String key, String value) throws RemoteException {
+    return switch (type) {
+      case GET -> server.get(key);
+      case PUT -> server.write(new WriteBatch().put(key, value));
+      case DELETE -> server.delete(key);
+    };
+  }
+
   // Main method to run the client application
   public static void main(String[] args) {
     System.out.println("Starting the Key Value Store Client, your port must be either <server port> or its increment of 1 to 4...\n");
     try {
       // Check if the correct number of command-line arguments is provided
+      if (args.length >= 3 && args[2].equalsIgnoreCase("load")) {
+        runLoad(args);
+        return;
+      }
       if (args.length != 2) {
         System.out.println("Usage: java KeyValueStoreClient <localhost> <port number: <server port> or its increment of 1 to 4>");
+        System.out.println("   or: java Client <localhost> <port> load [sessions] [seconds] [read%/write%/delete%] [uniform/zipfian] [key count] [value size] [target ops/s, 0 for closed loop] [rmi/async]");
         System.exit(1);
       }
 
@@ -76,7 +195,9 @@ public class Client {
         System.out.println(client.get(prepopulate[i]));
         System.out.println(client.delete(prepopulate[i]));
       }
-      System.out.println(timestamp + ", Enter operation:\nPUT <key> <value> or GET <key> or DELETE <key>");
+      System.out.println(timestamp + ", Enter operation:\nPUT <key> <value> or GET <key> or DELETE <key> or DUMP [after key]"
+            + "\nMGET <key>... or MPUT <key> <value>... or MDELETE <key>... or CAS <key> <version> <value>"
+            + "\nRECONFIG <phase 2 quorum> <server id>... or WATCH <key prefix> [seconds] [cursor]");
 
       // Perform at least 5 GETs, 5 PUTs, 5 DELETES
       while (true) {
@@ -114,15 +235,84 @@ public class Client {
                 System.out.println(timestamp + ", " + "Make sure there's one key to perform DELETE operation.");
               }
             }
+            case "MGET", "MDELETE" -> {
+              if (inputTokens.length >= 2) {
+                List<String> keys = Arrays.asList(inputTokens).subList(1, inputTokens.length);
+                response = operation.equals("MGET") ? client.multiGet(keys) : client.multiDelete(keys);
+              } else {
+                System.out.println(timestamp + ", " + "Make sure there's at least one key to perform " + operation + " operation.");
+              }
+            }
+            case "MPUT" -> {
+              if (inputTokens.length >= 3 && inputTokens.length % 2 == 1) {
+                Map<String, String> entries = new LinkedHashMap<>();
+                for (int i = 1; i < inputTokens.length; i += 2) {
+                  entries.put(inputTokens[i], inputTokens[i + 1]);
+                }
+                if (entries.size() == inputTokens.length / 2) {
+                  response = client.multiPut(entries);
+                } else {
+                  System.out.println(timestamp + ", " + "Make sure no key is repeated to perform MPUT operation.");
+                }
+              } else {
+                System.out.println(timestamp + ", " + "Make sure there are key value pairs to perform MPUT operation.");
+              }
+            }
+            case "CAS" -> {
+              if (inputTokens.length == 4 && inputTokens[2].matches("-?\\d+")) {
+                response = client.compareAndSet(inputTokens[1], Long.parseLong(inputTokens[2]), inputTokens[3]);
+              } else {
+                System.out.println(timestamp + ", " + "Make sure there's one key, version and value to perform CAS operation.");
+              }
+            }
+            case "DUMP" -> response = client.dump(inputTokens.length == 2 ? inputTokens[1] : null);
+            case "WATCH" -> {
+              if (inputTokens.length >= 2 && inputTokens.length <= 4 && (inputTokens.length < 3 || inputTokens[2].matches("\\d+"))
+                  && (inputTokens.length < 4 || inputTokens[3].matches("-?\\d+(,-?\\d+)*"))) {
+                long seconds = inputTokens.length >= 3 ? Long.parseLong(inputTokens[2]) : 30L;
+                long[] cursor = inputTokens.length == 4 ? Arrays.stream(inputTokens[3].split(",")).mapToLong(Long::parseLong).toArray() : null;
+                response = client.watch(inputTokens[1], seconds, cursor);
+              } else {
+                System.out.println(timestamp + ", " + "Make sure there's a key prefix, and optionally seconds and a cursor, to perform WATCH operation.");
+              }
+            }
+            case "RECONFIG" -> {
+              if (inputTokens.length >= 3 && Arrays.stream(inputTokens).skip(1).allMatch(token -> token.matches("\\d+"))) {
+                List<Integer> members = Arrays.stream(inputTokens).skip(2).map(Integer::parseInt).toList();
+                response = client.reconfigure(members, Integer.parseInt(inputTokens[1]));
+              } else {
+                System.out.println(timestamp + ", " + "Make sure there's a phase 2 quorum (0 for a majority) and at least one server ID to perform RECONFIG operation.");
+              }
+            }
             default -> System.out.println(timestamp + ", " + "Received an unknown operation. Try again. Or you didn't want to shut down.");
           }
           System.out.println(response);
         }
-        System.out.println(timestamp + ", Enter operation:\nPUT <key> <value> or GET <key> or DELETE <key>");
+        System.out.println(timestamp + ", Enter operation:\nPUT <key> <value> or GET <key> or DELETE <key> or DUMP [after key]"
+            + "\nMGET <key>... or MPUT <key> <value>... or MDELETE <key>... or CAS <key> <version> <value>"
+            + "\nRECONFIG <phase 2 quorum> <server id>... or WATCH <key prefix> [seconds] [cursor]");
       }
     } catch (Exception e) {
       // Handle exceptions that may occur during client execution
       System.err.println("Client exception: " + e.toString());
     }
   }
+
+  // Run the load generator with the optional arguments that follow "load"
+  private static void runLoad(String[] args) throws Exception {
+    int sessions = args.length > 3 ? Integer.parseInt(args[3]) : 16; // Default
+    int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30; // Default
+    String[] mix = (args.length > 5 ? args[5] : "50/50/0").split("/"); // Default
+    boolean zipfian = args.length <= 6 || args[6].equalsIgnoreCase("zipfian"); // Default zipfian
+    int keyCount = args.length > 7 ? Integer.parseInt(args[7]) : 1000; // Default
+    int valueSize = args.length > 8 ? Integer.parseInt(args[8]) : 100; // Default
+    double targetOpsPerSecond = args.length > 9 ? Double.parseDouble(args[9]) : 0.0; // Default closed loop
+    boolean async = args.length > 10 && args[10].equalsIgnoreCase("async"); // Default one RMI connection per session
+    if (mix.length != 3 || Integer.parseInt(mix[0]) + Integer.parseInt(mix[1]) + Integer.parseInt(mix[2]) != 100) {
+      System.out.println("The operation mix must be read%/write%/delete% adding up to 100, for example 95/5/0");
+      System.exit(1);
+    }
+    new LoadGenerator(args[0], Integer.parseInt(args[1]), sessions, seconds, Integer.parseInt(mix[0]), Integer.parseInt(mix[1]),
+        zipfian, keyCount, valueSize, targetOpsPerSecond, async).run();
+  }
 }
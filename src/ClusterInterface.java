@@ -0,0 +1,31 @@
+import java.net.InetSocketAddress;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Remote interface describing the cluster a server belongs to, so that a client given one server
+ * can find all of them.
+ */
+public interface ClusterInterface extends Remote {
+
+  /**
+   * Lists where every server accepts client operations over the NIO transport.
+   *
+   * @return The address of each server, indexed by server ID.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  List<InetSocketAddress> clientAddresses() throws RemoteException;
+
+  /**
+   * Changes which servers act as acceptors and how many of them make a quorum, without a restart.
+   * Every Paxos group decides the change through its own log, one group after the other.
+   *
+   * @param members The IDs of the servers that should be acceptors.
+   * @param phaseTwoQuorum The accepts needed to choose a value, 0 for a majority of the members.
+   *     Phase 1 then needs {@code members - phaseTwoQuorum + 1} promises.
+   * @return The result of the change in each group, indexed by group ID.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  List<OperationResult> reconfigure(List<Integer> members, int phaseTwoQuorum) throws RemoteException;
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A storage engine that packs every entry into large byte arrays instead of one set of objects per
+ * key. Each write appends a record {@code [int keyLength][int valueLength][long version][key][value]}
+ * in UTF-8 to the current segment of an append-only arena. An open-addressing table with linear
+ * probing maps keys to record addresses; it holds two parallel primitive arrays, the address and
+ * the key hash of each slot, so the garbage collector sees a handful of arrays whatever the number
+ * of keys. An entry costs its UTF-8 bytes, a 16 byte header and about 16 bytes of table.
+ * <p>
+ * Records are never changed once written: a write to an existing key appends a new record and
+ * leaves the old one behind as garbage. When the garbage outgrows the live records, the live
+ * records are copied into fresh segments. A snapshot therefore only copies the address table and
+ * keeps the segments it points into, which no later write or compaction touches.
+ */
+public final class CompactStorageEngine implements StorageEngine {
+  public static final int DEFAULT_SEGMENT_BYTES = 1 << 20; // 1 MiB
+  private static final int HEADER_BYTES = 16;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final float LOAD_FACTOR = 0.75f;
+  private static final long EMPTY = 0L;
+  private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final int segmentBytes;
+  private byte[][] segments;
+  private int segmentCount;
+  private int writeOffset; // Where the next record goes in the last segment
+  private long[] addresses; // Per table slot: EMPTY, or the segment number (from 1) and offset of a record
+  private int[] hashes; // Per table slot: the hash of the key, to skip most key comparisons
+  private int mask;
+  private int resizeThreshold;
+  private volatile int size;
+  private long arenaBytes; // Bytes of every segment allocated
+  private long liveBytes; // Bytes of the records the table points at
+
+  public CompactStorageEngine() {
+    this(DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * Constructor to create a CompactStorageEngine.
+   * @param segmentBytes The size of each arena segment. Larger records get a segment of their own.
+   */
+  public CompactStorageEngine(int segmentBytes) {
+    this.segmentBytes = segmentBytes;
+    clear();
+  }
+
+  @Override
+  public VersionedValue get(String key) {
+    int index = find(key.getBytes(StandardCharsets.UTF_8), hash(key));
+    if (index < 0) {
+      return null;
+    }
+    long address = addresses[index];
+    return new VersionedValue(valueOf(segments, address), versionOf(segments, address));
+  }
+
+  @Override
+  public void put(String key, String value, long version) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(key);
+    int index = find(keyBytes, hash);
+    long address = append(keyBytes, valueBytes, version);
+    if (index >= 0) {
+      liveBytes -= recordBytes(segments, addresses[index]);
+      addresses[index] = address;
+    } else {
+      index = -1 - index;
+      addresses[index] = address;
+      hashes[index] = hash;
+      size++;
+      if (size > resizeThreshold) {
+        resize(addresses.length * 2);
+      }
+    }
+    liveBytes += HEADER_BYTES + keyBytes.length + valueBytes.length;
+    if (arenaBytes - liveBytes > liveBytes + 2L * segmentBytes) {
+      compact();
+    }
+  }
+
+  @Override
+  public boolean remove(String key) {
+    int index = find(key.getBytes(StandardCharsets.UTF_8), hash(key));
+    if (index < 0) {
+      return false;
+    }
+    liveBytes -= recordBytes(segments, addresses[index]);
+    // Shift later entries of the probe run back over the hole, so lookups need no tombstones
+    int hole = index;
+    for (int i = (hole + 1) & mask; addresses[i] != EMPTY; i = (i + 1) & mask) {
+      int home = hashes[i] & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        addresses[hole] = addresses[i];
+        hashes[hole] = hashes[i];
+        hole = i;
+      }
+    }
+    addresses[hole] = EMPTY;
+    hashes[hole] = 0;
+    size--;
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    segments = new byte[8][];
+    segmentCount = 0;
+    writeOffset = 0;
+    arenaBytes = 0L;
+    liveBytes = 0L;
+    addresses = new long[INITIAL_CAPACITY];
+    hashes = new int[INITIAL_CAPACITY];
+    mask = INITIAL_CAPACITY - 1;
+    resizeThreshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+    size = 0;
+  }
+
+  @Override
+  public Snapshot snapshot() {
+    return new View(Arrays.copyOf(segments, segmentCount), addresses.clone(), size);
+  }
+
+  /**
+   * @return The bytes allocated for the arena and the table.
+   */
+  public long memoryBytes() {
+    return arenaBytes + (long) addresses.length * (Long.BYTES + Integer.BYTES);
+  }
+
+  /**
+   * @return The table slot holding the key, or -1 minus the empty slot where it would go.
+   */
+  private int find(byte[] keyBytes, int hash) {
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      long address = addresses[i];
+      if (address == EMPTY) {
+        return -1 - i;
+      }
+      if (hashes[i] == hash && keyEquals(address, keyBytes)) {
+        return i;
+      }
+    }
+  }
+
+  private boolean keyEquals(long address, byte[] keyBytes) {
+    byte[] segment = segments[segmentOf(address)];
+    int offset = offsetOf(address);
+    int keyLength = (int) INT.get(segment, offset);
+    int keyStart = offset + HEADER_BYTES;
+    return keyLength == keyBytes.length && Arrays.equals(segment, keyStart, keyStart + keyLength, keyBytes, 0, keyBytes.length);
+  }
+
+  private long append(byte[] keyBytes, byte[] valueBytes, long version) {
+    int length = HEADER_BYTES + keyBytes.length + valueBytes.length;
+    if (segmentCount == 0 || writeOffset + length > segments[segmentCount - 1].length) {
+      addSegment(Math.max(segmentBytes, length));
+    }
+    byte[] segment = segments[segmentCount - 1];
+    int offset = writeOffset;
+    INT.set(segment, offset, keyBytes.length);
+    INT.set(segment, offset + 4, valueBytes.length);
+    LONG.set(segment, offset + 8, version);
+    System.arraycopy(keyBytes, 0, segment, offset + HEADER_BYTES, keyBytes.length);
+    System.arraycopy(valueBytes, 0, segment, offset + HEADER_BYTES + keyBytes.length, valueBytes.length);
+    writeOffset += length;
+    return ((long) segmentCount << 32) | offset;
+  }
+
+  private void addSegment(int bytes) {
+    if (segmentCount == segments.length) {
+      segments = Arrays.copyOf(segments, segmentCount * 2);
+    }
+    segments[segmentCount++] = new byte[bytes];
+    writeOffset = 0;
+    arenaBytes += bytes;
+  }
+
+  private void resize(int capacity) {
+    long[] oldAddresses = addresses;
+    int[] oldHashes = hashes;
+    addresses = new long[capacity];
+    hashes = new int[capacity];
+    mask = capacity - 1;
+    resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    for (int i = 0; i < oldAddresses.length; i++) {
+      if (oldAddresses[i] != EMPTY) {
+        int slot = oldHashes[i] & mask;
+        while (addresses[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        addresses[slot] = oldAddresses[i];
+        hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+
+  /**
+   * Copy the live records into new segments and drop the old ones. Table slots keep their place,
+   * only their addresses change. Snapshots still hold the old segments they read from.
+   */
+  private void compact() {
+    byte[][] oldSegments = Arrays.copyOf(segments, segmentCount);
+    segments = new byte[Math.max(8, Integer.highestOneBit((int) (liveBytes / segmentBytes) + 1) * 2)][];
+    segmentCount = 0;
+    writeOffset = 0;
+    arenaBytes = 0L;
+    for (int i = 0; i < addresses.length; i++) {
+      long address = addresses[i];
+      if (address != EMPTY) {
+        byte[] segment = oldSegments[segmentOf(address)];
+        int offset = offsetOf(address);
+        int length = recordBytes(oldSegments, address);
+        if (segmentCount == 0 || writeOffset + length > segments[segmentCount - 1].length) {
+          addSegment(Math.max(segmentBytes, length));
+        }
+        System.arraycopy(segment, offset, segments[segmentCount - 1], writeOffset, length);
+        addresses[i] = ((long) segmentCount << 32) | writeOffset;
+        writeOffset += length;
+      }
+    }
+  }
+
+  private static int hash(String key) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int segmentOf(long address) {
+    return (int) (address >>> 32) - 1;
+  }
+
+  private static int offsetOf(long address) {
+    return (int) address;
+  }
+
+  private static int recordBytes(byte[][] segments, long address) {
+    byte[] segment = segments[segmentOf(address)];
+    int offset = offsetOf(address);
+    return HEADER_BYTES + (int) INT.get(segment, offset) + (int) INT.get(segment, offset + 4);
+  }
+
+  private static String keyOf(byte[][] segments, long address) {
+    byte[] segment = segments[segmentOf(address)];
+    int offset = offsetOf(address);
+    return new String(segment, offset + HEADER_BYTES, (int) INT.get(segment, offset), StandardCharsets.UTF_8);
+  }
+
+  private static String valueOf(byte[][] segments, long address) {
+    byte[] segment = segments[segmentOf(address)];
+    int offset = offsetOf(address);
+    int keyLength = (int) INT.get(segment, offset);
+    return new String(segment, offset + HEADER_BYTES + keyLength, (int) INT.get(segment, offset + 4), StandardCharsets.UTF_8);
+  }
+
+  private static long versionOf(byte[][] segments, long address) {
+    return (long) LONG.get(segments[segmentOf(address)], offsetOf(address) + 8);
+  }
+
+  /**
+   * A snapshot: a copy of the address table over segments that are never written again at the
+   * addresses it holds.
+   */
+  private static final class View implements Snapshot {
+    private final byte[][] segments;
+    private final long[] addresses;
+    private final int size;
+
+    View(byte[][] segments, long[] addresses, int size) {
+      this.segments = segments;
+      this.addresses = addresses;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) throws IOException {
+      for (long address : addresses) {
+        if (address != EMPTY) {
+          visitor.visit(keyOf(segments, address), valueOf(segments, address), versionOf(segments, address));
+        }
+      }
+    }
+  }
+}
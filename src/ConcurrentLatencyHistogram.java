@@ -0,0 +1,36 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LatencyHistogram} that any number of threads can record into at once. Recording is a
+ * few atomic increments and never takes a lock, so it can sit on the Paxos hot path. Reading
+ * copies the counts into a LatencyHistogram; values recorded meanwhile may or may not be included.
+ */
+public class ConcurrentLatencyHistogram {
+  private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * Record one value.
+   * @param value The value, typically a latency in nanoseconds. Negative values count as 0.
+   */
+  public void record(long value) {
+    long v = Math.max(0L, value);
+    counts.incrementAndGet(LatencyHistogram.bucketOf(v));
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * @return A copy of the values recorded so far.
+   */
+  public LatencyHistogram snapshot() {
+    long[] copy = new long[LatencyHistogram.BUCKETS];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new LatencyHistogram(copy, sum.sum(), max.get());
+  }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The Configuration of a Paxos group: which servers are its acceptors, and how many of them make a
+ * quorum in each phase. Following Flexible Paxos, the two phases need not both use a majority, only
+ * every phase 1 quorum has to intersect every phase 2 quorum. The phase 2 quorum is chosen and the
+ * phase 1 quorum is the smallest that still intersects it, {@code members - phase2 + 1}. A small
+ * phase 2 quorum makes steady-state writes wait on fewer acceptors, at the price of a larger
+ * quorum for the rarer phase 1.
+ *
+ * <p>A configuration is also a log value: once chosen and applied at a slot, it governs every later
+ * slot. Servers outside the configuration keep learning the log, so they are up to date when a
+ * later configuration adds them.
+ */
+public class Configuration implements Serializable {
+  private static final long serialVersionUID = 1L;
+  final int[] members; // Sorted server IDs
+  final int phaseTwoQuorum;
+
+  /**
+   * Constructor to create a Configuration.
+   * @param members The IDs of the servers acting as acceptors.
+   * @param phaseTwoQuorum The accepts needed to choose a value, 0 for a majority of the members.
+   * @param numServers The number of servers, which bounds the IDs.
+   * @throws IllegalArgumentException If there is no member, an ID is out of range or repeated, or the
+   *     quorum is larger than the number of members.
+   */
+  public Configuration(Collection<Integer> members, int phaseTwoQuorum, int numServers) {
+    this.members = members.stream().mapToInt(Integer::intValue).sorted().toArray();
+    this.phaseTwoQuorum = phaseTwoQuorum == 0 ? this.members.length / 2 + 1 : phaseTwoQuorum;
+    check(this.members, this.phaseTwoQuorum, numServers);
+  }
+
+  /**
+   * Constructor to create a Configuration from its encoded form, as read from the wire or a snapshot.
+   * @param members The IDs of the acceptors, in increasing order.
+   * @param phaseTwoQuorum The accepts needed to choose a value.
+   * @throws IllegalArgumentException If there is no member, the IDs are negative, unsorted or
+   *     repeated, or the quorum does not fit the members.
+   */
+  Configuration(int[] members, int phaseTwoQuorum) {
+    check(members, phaseTwoQuorum, Integer.MAX_VALUE);
+    this.members = members;
+    this.phaseTwoQuorum = phaseTwoQuorum;
+  }
+
+  private static void check(int[] members, int phaseTwoQuorum, int numServers) {
+    if (members.length == 0) {
+      throw new IllegalArgumentException("A configuration needs at least one member");
+    }
+    for (int i = 0; i < members.length; i++) {
+      if (members[i] < 0 || members[i] >= numServers) {
+        throw new IllegalArgumentException("No server " + members[i] + (numServers < Integer.MAX_VALUE ? " among " + numServers + " servers" : ""));
+      }
+      if (i > 0 && members[i] <= members[i - 1]) {
+        throw new IllegalArgumentException("Server " + members[i] + (members[i] == members[i - 1] ? " is listed twice" : " is out of order"));
+      }
+    }
+    if (phaseTwoQuorum < 1 || phaseTwoQuorum > members.length) {
+      throw new IllegalArgumentException("A phase 2 quorum of " + phaseTwoQuorum + " does not fit " + members.length + " members");
+    }
+  }
+
+  /**
+   * Check a configuration that arrived through Java serialization, which skips the constructors.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    try {
+      check(members, phaseTwoQuorum, Integer.MAX_VALUE);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new InvalidObjectException("Invalid configuration: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param numServers The number of servers.
+   * @return True if every member is one of that many servers.
+   */
+  public boolean fits(int numServers) {
+    return members[members.length - 1] < numServers;
+  }
+
+  /**
+   * @param numServers The number of servers.
+   * @return The configuration in which every server is a member and both phases use a majority.
+   */
+  public static Configuration allOf(int numServers) {
+    int[] members = new int[numServers];
+    Arrays.setAll(members, i -> i);
+    return new Configuration(members, numServers / 2 + 1);
+  }
+
+  /**
+   * @return The promises needed to complete phase 1.
+   */
+  public int phaseOneQuorum() {
+    return members.length - phaseTwoQuorum + 1;
+  }
+
+  /**
+   * @return The accepts needed to choose a value.
+   */
+  public int phaseTwoQuorum() {
+    return phaseTwoQuorum;
+  }
+
+  /**
+   * @param serverId The ID of a server.
+   * @return True if the server is an acceptor of this configuration.
+   */
+  public boolean contains(int serverId) {
+    return Arrays.binarySearch(members, serverId) >= 0;
+  }
+
+  /**
+   * @param peers Peers indexed by server ID.
+   * @return A copy in which the peers that are not members are null.
+   */
+  public <P> P[] select(P[] peers) {
+    P[] selected = Arrays.copyOf(peers, peers.length);
+    for (int i = 0; i < selected.length; i++) {
+      if (!contains(i)) {
+        selected[i] = null;
+      }
+    }
+    return selected;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Configuration)) {
+      return false;
+    }
+    Configuration configuration = (Configuration) other;
+    return phaseTwoQuorum == configuration.phaseTwoQuorum && Arrays.equals(members, configuration.members);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(members) * 31 + phaseTwoQuorum;
+  }
+
+  @Override
+  public String toString() {
+    return "CONFIGURATION members=" + Arrays.toString(members) + " phase1=" + phaseOneQuorum() + " phase2=" + phaseTwoQuorum;
+  }
+}
@@ -0,0 +1,104 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * The ContentionBackoff decides how often and after how long a proposer tries again once another
+ * proposer's higher ballot pre-empted it. The pause before each retry is drawn uniformly between 0
+ * and a cap that doubles with every retry, so dueling proposers quickly stop retrying in lock
+ * step and one of them gets through. The cap starts at the recent length of an attempt, since a
+ * rival needs about that long to get its value chosen: a shorter pause only pre-empts the rival
+ * in turn, and a fixed one is far too short on a real network. The retry budget bounds the
+ * attempts per operation, after which the caller gets a CONTENDED result instead of waiting on a
+ * livelock. Before any attempt, a proposer also holds off while a rival is in the middle of one,
+ * instead of pre-empting it.
+ */
+public class ContentionBackoff {
+  public static final int DEFAULT_RETRY_BUDGET = 10; // Attempts per operation, the first one included
+  public static final long DEFAULT_BASE_DELAY_MILLIS = 2L;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 200L;
+
+  private final int retryBudget;
+  private final long baseDelayNanos;
+  private final long maxDelayNanos;
+  private volatile long attemptNanos; // Recent length of an attempt, smoothed; racy updates only blur it
+
+  /**
+   * Constructor to create a ContentionBackoff.
+   * @param retryBudget The most attempts per operation, the first one included.
+   * @param baseDelayMillis The least cap on the pause before the first retry.
+   * @param maxDelayMillis The cap on the pause before any retry.
+   */
+  public ContentionBackoff(int retryBudget, long baseDelayMillis, long maxDelayMillis) {
+    this.retryBudget = Math.max(1, retryBudget);
+    this.baseDelayNanos = baseDelayMillis * 1_000_000L;
+    this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+  }
+
+  /**
+   * @return The most attempts per operation, the first one included.
+   */
+  public int getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * @param attempt The number of attempts made so far.
+   * @return True if another attempt is within the budget.
+   */
+  public boolean canRetry(int attempt) {
+    return attempt < retryBudget;
+  }
+
+  /**
+   * Record how long an attempt took, pre-empted or not, to scale the pauses to the network.
+   * @param nanos The length of the attempt.
+   */
+  public void recordAttempt(long nanos) {
+    long current = attemptNanos;
+    attemptNanos = current == 0L ? nanos : current + (nanos - current) / 8;
+  }
+
+  /**
+   * Hold off while a rival proposer is in the middle of an attempt, so as not to pre-empt it.
+   * Gives up waiting after the longest pause, so a stream of rivals cannot starve the caller.
+   * @param lastRivalNanos Returns when this server's acceptor last heard from a rival proposer
+   *     that may still be busy, as System.nanoTime(), or Long.MIN_VALUE if none is.
+   * @return False if the wait was interrupted, in which case the caller should give up.
+   */
+  public boolean awaitRival(LongSupplier lastRivalNanos) {
+    long giveUp = System.nanoTime() + maxDelayNanos;
+    while (true) {
+      long last = lastRivalNanos.getAsLong();
+      long now = System.nanoTime();
+      long quietAt = last == Long.MIN_VALUE ? now : last + attemptNanos;
+      if (quietAt <= now || now >= giveUp) {
+        return true;
+      }
+      long delay = Math.min(quietAt, giveUp) - now + ThreadLocalRandom.current().nextLong(baseDelayNanos + 1);
+      try {
+        Thread.sleep(delay / 1_000_000L, (int) (delay % 1_000_000L));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Wait before the next attempt.
+   * @param attempt The number of attempts made so far, from 1.
+   * @return False if the wait was interrupted, in which case the caller should give up.
+   */
+  public boolean pause(int attempt) {
+    long unit = Math.max(baseDelayNanos, attemptNanos);
+    long cap = Math.min(maxDelayNanos, unit << Math.min(attempt - 1, 20));
+    long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+    try {
+      Thread.sleep(delay / 1_000_000L, (int) (delay % 1_000_000L));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The FailureDetector tells a server which of its peers are probably down, so proposers can leave
+ * them out of their quorums instead of waiting on them. Every peer is sent a heartbeat every
+ * {@link #HEARTBEAT_PERIOD_MILLIS}, on a thread of its own so one hung peer delays no other.
+ *
+ * <p>Suspicion is phi accrual: the detector keeps the last intervals between heartbeat replies of
+ * each peer and computes phi, minus the log10 of the probability that a reply is still this late
+ * if the peer is alive, under a normal distribution fitted to those intervals. A peer is suspected
+ * while phi exceeds {@link #DEFAULT_THRESHOLD}, so the suspicion adapts to how regular each peer's
+ * replies are instead of relying on one fixed timeout.
+ */
+public class FailureDetector {
+  public static final long HEARTBEAT_PERIOD_MILLIS = 100L;
+  public static final double DEFAULT_THRESHOLD = 8.0;
+  private static final int WINDOW = 100; // Intervals kept per peer
+  private static final double MIN_STD_DEV_NANOS = 50e6; // 50 ms, keeps very regular peers from being suspected on a hiccup
+
+  private final int selfId;
+  private final double threshold;
+  private final History[] histories;
+  private final ExecutorService[] lanes;
+  private final AtomicBoolean[] outstanding;
+  private final String name;
+
+  /**
+   * Constructor to create a FailureDetector. Every peer starts as if it had just replied.
+   * @param numPeers The number of peers, including this server.
+   * @param selfId The index of this server, which is never suspected.
+   * @param name Prefix used for the heartbeat thread names.
+   * @param threshold The phi above which a peer is suspected.
+   */
+  public FailureDetector(int numPeers, int selfId, String name, double threshold) {
+    this.selfId = selfId;
+    this.threshold = threshold;
+    this.name = name;
+    this.histories = new History[numPeers];
+    this.lanes = new ExecutorService[numPeers];
+    this.outstanding = new AtomicBoolean[numPeers];
+    long now = System.nanoTime();
+    for (int i = 0; i < numPeers; i++) {
+      histories[i] = new History(now);
+      outstanding[i] = new AtomicBoolean();
+      if (i != selfId) {
+        String threadName = name + "-heartbeat" + i;
+        lanes[i] = Executors.newSingleThreadExecutor(r -> {
+          Thread thread = new Thread(r, threadName);
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+    }
+  }
+
+  /**
+   * Start sending heartbeats. A heartbeat is a {@link LearnerInterface#lastAppliedSlot()} call, which
+   * every transport supports and which takes no lock on the peer's Paxos state.
+   * @param peers Reads the current peers, null entries are skipped.
+   */
+  public void start(Supplier<LearnerInterface[]> peers) {
+    Thread sender = new Thread(() -> {
+      while (true) {
+        try {
+          Thread.sleep(HEARTBEAT_PERIOD_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        LearnerInterface[] current = peers.get();
+        for (int i = 0; current != null && i < current.length; i++) {
+          if (current[i] != null && i != selfId) {
+            sendHeartbeat(i, current[i]);
+          }
+        }
+      }
+    }, name + "-heartbeat");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  private void sendHeartbeat(int index, LearnerInterface peer) {
+    // A peer that has not answered the previous heartbeat does not get a queue of them
+    if (!outstanding[index].compareAndSet(false, true)) {
+      return;
+    }
+    lanes[index].execute(() -> {
+      try {
+        peer.lastAppliedSlot();
+        heartbeat(index, System.nanoTime());
+      } catch (RemoteException | RuntimeException e) {
+        // No reply is what the detector measures
+      } finally {
+        outstanding[index].set(false);
+      }
+    });
+  }
+
+  /**
+   * Record a heartbeat reply from a peer.
+   * @param peer The index of the peer.
+   * @param nowNanos The {@link System#nanoTime()} at which the reply arrived.
+   */
+  public void heartbeat(int peer, long nowNanos) {
+    histories[peer].add(nowNanos);
+  }
+
+  /**
+   * @param peer The index of the peer.
+   * @param nowNanos The current {@link System#nanoTime()}.
+   * @return How strongly the peer is suspected to be down; 1 means a 10% chance of a wrong suspicion,
+   *     2 a 1% chance, and so on.
+   */
+  public double phi(int peer, long nowNanos) {
+    return peer == selfId ? 0.0 : histories[peer].phi(nowNanos);
+  }
+
+  /**
+   * @param peer The index of the peer.
+   * @return True if the peer is suspected to be down right now.
+   */
+  public boolean isSuspected(int peer) {
+    return phi(peer, System.nanoTime()) > threshold;
+  }
+
+  /**
+   * The arrival of recent heartbeat replies of one peer.
+   */
+  private static final class History {
+    private final long[] intervals = new long[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastNanos;
+
+    History(long nowNanos) {
+      lastNanos = nowNanos;
+      // Until real replies arrive, expect one per heartbeat period
+      record(HEARTBEAT_PERIOD_MILLIS * 1_000_000L);
+    }
+
+    synchronized void add(long nowNanos) {
+      record(nowNanos - lastNanos);
+      lastNanos = nowNanos;
+    }
+
+    private void record(long interval) {
+      if (count == WINDOW) {
+        long dropped = intervals[next];
+        sum -= dropped;
+        sumOfSquares -= (double) dropped * dropped;
+      } else {
+        count++;
+      }
+      intervals[next] = interval;
+      next = (next + 1) % WINDOW;
+      sum += interval;
+      sumOfSquares += (double) interval * interval;
+    }
+
+    synchronized double phi(long nowNanos) {
+      double mean = sum / count;
+      double stdDev = Math.max(MIN_STD_DEV_NANOS, Math.sqrt(Math.max(0.0, sumOfSquares / count - mean * mean)));
+      double y = (nowNanos - lastNanos - mean) / stdDev;
+      // Logistic approximation of the normal tail, accurate enough and cheap
+      double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+      double tail = y > 0 ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+      return -Math.log10(Math.max(tail, Double.MIN_NORMAL));
+    }
+  }
+}
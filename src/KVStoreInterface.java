@@ -1,5 +1,7 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Remote interface for the Key-Value Store.
@@ -10,24 +12,94 @@ public interface KVStoreInterface extends Remote {
    * Retrieves the value associated with the given key.
    *
    * @param key The key for which to retrieve the value.
+   * @return OK with the value, or NOT_FOUND.
    * @throws RemoteException if a remote communication error occurs.
    */
-  String get(String key) throws RemoteException;
+  OperationResult get(String key) throws RemoteException;
 
   /**
    * Stores the given key-value pair.
    *
    * @param key   The key to store.
    * @param value The value to associate with the key.
+   * @return OK, or ALREADY_EXISTS if the key is taken.
    * @throws RemoteException if a remote communication error occurs.
    */
-  String put(String key, String value) throws RemoteException;
+  OperationResult put(String key, String value) throws RemoteException;
 
   /**
    * Deletes the entry with the given key.
    *
    * @param key The key to delete.
+   * @return OK, or NOT_FOUND.
    * @throws RemoteException if a remote communication error occurs.
    */
-  String delete(String key) throws RemoteException;
+  OperationResult delete(String key) throws RemoteException;
+
+  /**
+   * Retrieves many keys in one consensus round. Each key is read on its own, as with get.
+   *
+   * @param keys The keys to retrieve.
+   * @return The result for each key, in the order of the keys, or FAILED for every key if one is
+   *         repeated.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  Map<String, OperationResult> multiGet(List<String> keys) throws RemoteException;
+
+  /**
+   * Stores many key-value pairs in one consensus round. Each pair is stored on its own, as with
+   * put, so some keys may be stored while others already exist.
+   *
+   * @param entries The keys and values to store.
+   * @return The result for each key, in the order of the entries.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  Map<String, OperationResult> multiPut(Map<String, String> entries) throws RemoteException;
+
+  /**
+   * Deletes many keys in one consensus round. Each key is deleted on its own, as with delete.
+   *
+   * @param keys The keys to delete.
+   * @return The result for each key, in the order of the keys, or FAILED for every key if one is
+   *         repeated.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  Map<String, OperationResult> multiDelete(List<String> keys) throws RemoteException;
+
+  /**
+   * Applies a write batch atomically: every write takes effect if every expected version matches,
+   * or none does.
+   *
+   * @param batch The batch.
+   * @return OK with the new version of every written key, or CONFLICT if a version did not match.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  OperationResult write(WriteBatch batch) throws RemoteException;
+
+  /**
+   * Lists the store of the server called, in key order, one page at a time. Meant for debugging:
+   * it reads the local store without a consensus round. Pages after the first continue in the
+   * snapshot the first page took, for up to 30 seconds.
+   *
+   * @param afterKey The key to continue after, null to start from the first key.
+   * @param maxEntries The most entries to return.
+   * @return The page.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  StorePage dump(String afterKey, int maxEntries) throws RemoteException;
+
+  /**
+   * Reads the writes and deletes applied to keys with a prefix after a cursor, in log order within
+   * each Paxos group, waiting for one if there is none yet. Nothing is proposed: the changes come
+   * from what the server called has applied. Pass the returned cursor to the next call to continue
+   * the stream, on this server or another one.
+   *
+   * @param prefix The key prefix to watch, a whole key to watch one key, empty for every key.
+   * @param cursor The cursor of the previous call, null to start with the changes applied from now on.
+   * @param maxChanges The most changes to return, over all groups.
+   * @param timeoutMillis How long to wait for a change before returning an empty batch.
+   * @return The changes and the cursor to continue from.
+   * @throws RemoteException if a remote communication error occurs.
+   */
+  WatchBatch watch(String prefix, long[] cursor, int maxChanges, long timeoutMillis) throws RemoteException;
 }
@@ -0,0 +1,120 @@
+/**
+ * A latency histogram in the style of HdrHistogram: buckets are exact below 128 and then grow
+ * with the magnitude of the value, keeping 64 buckets per power of two, so every recorded value
+ * is reported within 1.6% of its true value whatever its size. Recording is a single array
+ * increment. A histogram is meant to be written by one thread; histograms of several threads are
+ * combined with {@link #add(LatencyHistogram)} once they are done.
+ */
+public class LatencyHistogram {
+  private static final int EXACT_BUCKETS = 128;
+  private static final int SUB_BUCKETS = 64;
+  static final int BUCKETS = EXACT_BUCKETS + 56 * SUB_BUCKETS;
+
+  private final long[] counts;
+  private long totalCount = 0L;
+  private long sum = 0L;
+  private long max = 0L;
+
+  /**
+   * Constructor to create an empty LatencyHistogram.
+   */
+  public LatencyHistogram() {
+    this.counts = new long[BUCKETS];
+  }
+
+  /**
+   * Constructor to create a LatencyHistogram from bucket counts, used to read a
+   * {@link ConcurrentLatencyHistogram}.
+   */
+  LatencyHistogram(long[] counts, long sum, long max) {
+    this.counts = counts;
+    for (long count : counts) {
+      totalCount += count;
+    }
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * Record one value.
+   * @param value The value, typically a latency in nanoseconds. Negative values count as 0.
+   */
+  public void record(long value) {
+    long v = Math.max(0L, value);
+    counts[bucketOf(v)]++;
+    totalCount++;
+    sum += v;
+    max = Math.max(max, v);
+  }
+
+  /**
+   * Add every value recorded by another histogram to this one.
+   * @param other The histogram to add.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * @return The number of values recorded.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * @return The mean of the recorded values, 0 if there are none.
+   */
+  public double getMean() {
+    return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+  }
+
+  /**
+   * @return The largest recorded value.
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile The percentile, between 0 and 100.
+   * @return The highest value equivalent to the value at the percentile, 0 if nothing was recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0L;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+    long seen = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestValueIn(i), max);
+      }
+    }
+    return max;
+  }
+
+  static int bucketOf(long value) {
+    if (value < EXACT_BUCKETS) {
+      return (int) value;
+    }
+    // Keep the 7 most significant bits, whose top bit is always set
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+    return EXACT_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  private static long highestValueIn(int bucket) {
+    if (bucket < EXACT_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 1;
+    long top = (bucket - EXACT_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * The LeaderLease class tracks the read lease of a Multi-Paxos leader. Every round in which a
+ * majority acknowledged the leader's ballot extends the lease, measured from the moment the round
+ * was started. While acceptors remember that contact they refuse to promise any other proposer, so
+ * as long as the lease is held no other leader can have chosen a value, and reads can be served
+ * from local state without a consensus round.
+ */
+public class LeaderLease {
+  public static final long DEFAULT_DURATION_MILLIS = 2000L;
+  private static final long CLOCK_DRIFT_MARGIN_MILLIS = 200L;
+
+  private final long durationNanos;
+  private final long usableNanos;
+  private volatile int ballot = -1;
+  private volatile long validUntilNanos = 0L;
+
+  /**
+   * Constructor to create a LeaderLease.
+   * @param durationMillis How long acceptors refuse other proposers after hearing from the leader.
+   */
+  public LeaderLease(long durationMillis) {
+    this.durationNanos = durationMillis * 1_000_000L;
+    // The leader gives up its lease a little early to absorb clock rate differences between replicas
+    this.usableNanos = Math.max(0L, durationMillis - CLOCK_DRIFT_MARGIN_MILLIS) * 1_000_000L;
+  }
+
+  /**
+   * @return How long acceptors honour the lease, in nanoseconds.
+   */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * Extend the lease after a majority acknowledged the ballot in a round that started at roundStartNanos.
+   * @param ballot The leader's ballot.
+   * @param roundStartNanos The {@link System#nanoTime()} at which the round was started.
+   */
+  public synchronized void extend(int ballot, long roundStartNanos) {
+    long until = roundStartNanos + usableNanos;
+    if (this.ballot != ballot) {
+      this.ballot = ballot;
+      this.validUntilNanos = until;
+    } else if (until > validUntilNanos) {
+      this.validUntilNanos = until;
+    }
+  }
+
+  /**
+   * @param ballot The ballot the caller is leading with.
+   * @return True if the lease is held for the given ballot right now.
+   */
+  public boolean isHeld(int ballot) {
+    return ballot >= 0 && this.ballot == ballot && System.nanoTime() - validUntilNanos < 0;
+  }
+
+  /**
+   * Give up the lease, for example after being pre-empted by another proposer.
+   */
+  public synchronized void revoke() {
+    this.ballot = -1;
+    this.validUntilNanos = 0L;
+  }
+}
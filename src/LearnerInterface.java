@@ -1,5 +1,6 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * The LearnerInterface represents a remote interface that defines
@@ -8,11 +9,52 @@ import java.rmi.RemoteException;
  */
 public interface LearnerInterface extends Remote {
   /**
-   * The learn method is used to inform the Learner of an accepted proposal.
+   * The learn method is used to inform the Learner of an accepted proposal. Learned slots are
+   * applied strictly in log order, so a slot may be held back until the slots before it arrive.
    *
    * @param proposalId The unique identifier for the proposal.
+   * @param slot The log slot the value was chosen for.
    * @param acceptedValue The value that has been accepted.
+   * @return The result of applying the slot, or an empty string if it could not be applied yet.
    * @throws RemoteException If a remote invocation error occurs.
    */
-  String learn(int proposalId, Object acceptedValue) throws RemoteException;
+  String learn(int proposalId, int slot, Object acceptedValue) throws RemoteException;
+
+  /**
+   * Returns the last log slot this learner has applied.
+   *
+   * @return The last applied slot, -1 if none.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  int lastAppliedSlot() throws RemoteException;
+
+  /**
+   * Returns the last log slot covered by this learner's newest snapshot. Slots up to it can only
+   * be transferred as part of the snapshot.
+   *
+   * @return The snapshot slot, -1 if there is no snapshot.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  int lastSnapshotSlot() throws RemoteException;
+
+  /**
+   * Reads one chunk of a snapshot, used to stream it to a lagging replica.
+   *
+   * @param slot The snapshot slot, as returned by {@link #lastSnapshotSlot()}.
+   * @param offset The byte offset of the chunk.
+   * @param maxBytes The largest chunk to return.
+   * @return The chunk, empty once the whole snapshot has been read.
+   * @throws RemoteException If the snapshot was replaced meanwhile or a remote invocation error occurs.
+   */
+  byte[] readSnapshot(int slot, long offset, int maxBytes) throws RemoteException;
+
+  /**
+   * Returns applied log entries above the snapshot, in slot order, used to catch up a lagging replica.
+   *
+   * @param fromSlot The first slot to return.
+   * @param maxEntries The most entries to return.
+   * @return The entries, empty if fromSlot is not retained anymore or not applied yet.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  List<LogEntry> chosenSince(int fromSlot, int maxEntries) throws RemoteException;
 }
@@ -0,0 +1,289 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The LinearizabilityChecker records the GET, PUT and DELETE operations clients ran against the
+ * store, with when each was invoked and when it returned, and decides whether some order of them
+ * respects real time and the semantics of a single copy of the store.
+ *
+ * <p>Linearizability is local, so the history of each key is checked on its own. Each check is a
+ * depth-first search over which pending operation takes effect next, as in Wing and Gong, with
+ * Lowe's memoization of (operations taken, store state) so equivalent orders are explored once.
+ * An operation that failed with an error or an exception may or may not have taken effect: it
+ * stays pending until the end of the history, and any outcome is accepted for it.
+ */
+public class LinearizabilityChecker {
+  /** The most search steps per key before the verdict for that key is left unknown. */
+  public static final long DEFAULT_STEP_BUDGET = 10_000_000L;
+
+  private final List<Operation> history = new ArrayList<>();
+
+  /**
+   * The verdict of a check.
+   */
+  public enum Verdict { LINEARIZABLE, VIOLATION, UNKNOWN }
+
+  /**
+   * One operation of the history.
+   */
+  public static class Operation {
+    final int client;
+    final String type;
+    final String key;
+    final String value;
+    final long invokeNanos;
+    long returnNanos = Long.MAX_VALUE; // Never returned until completed
+    OperationResult.Status status; // Null while the outcome is unknown
+    String output;
+
+    Operation(int client, String type, String key, String value, long invokeNanos) {
+      this.client = client;
+      this.type = type;
+      this.key = key;
+      this.value = value;
+      this.invokeNanos = invokeNanos;
+    }
+
+    boolean isDeterminate() {
+      return status != null;
+    }
+
+    @Override
+    public String toString() {
+      return "client " + client + " " + type + " " + key + (value != null ? " " + value : "") + " -> "
+          + (status != null ? status + (output != null ? " " + output : "") : "unknown");
+    }
+  }
+
+  /**
+   * Record that a client sent an operation.
+   * @param client The ID of the client.
+   * @param type GET, PUT or DELETE.
+   * @param key The key of the operation.
+   * @param value The value of a PUT, null otherwise.
+   * @return The operation, to complete once it returns.
+   */
+  public synchronized Operation invoke(int client, String type, String key, String value) {
+    Operation operation = new Operation(client, type, key, value, System.nanoTime());
+    history.add(operation);
+    return operation;
+  }
+
+  /**
+   * Record that an operation returned.
+   * @param operation The operation, as returned by {@link #invoke}.
+   * @param result Its result, or null if it failed with an exception.
+   */
+  public synchronized void complete(Operation operation, OperationResult result) {
+    long now = System.nanoTime();
+    if (result == null || result.getStatus().isError()) {
+      // It may still take effect later, so it never returns
+      return;
+    }
+    operation.returnNanos = now;
+    operation.status = result.getStatus();
+    operation.output = result.getValue();
+  }
+
+  /**
+   * @return The number of operations recorded.
+   */
+  public synchronized int size() {
+    return history.size();
+  }
+
+  /**
+   * Check the history of every key.
+   * @param stepBudget The most search steps per key.
+   * @return The verdict for each key, in key order.
+   */
+  public synchronized Map<String, Verdict> check(long stepBudget) {
+    Map<String, List<Operation>> byKey = new TreeMap<>();
+    for (Operation operation : history) {
+      // A read that never returned has no effect and nothing to check
+      if (!operation.isDeterminate() && operation.type.equals("GET")) {
+        continue;
+      }
+      byKey.computeIfAbsent(operation.key, key -> new ArrayList<>()).add(operation);
+    }
+    Map<String, Verdict> verdicts = new TreeMap<>();
+    for (Map.Entry<String, List<Operation>> entry : byKey.entrySet()) {
+      verdicts.put(entry.getKey(), checkKey(entry.getValue(), stepBudget));
+    }
+    return verdicts;
+  }
+
+  /**
+   * @param key A key of the history.
+   * @return The operations on the key, in the order they were invoked.
+   */
+  public synchronized List<Operation> historyOf(String key) {
+    List<Operation> operations = new ArrayList<>();
+    for (Operation operation : history) {
+      if (operation.key.equals(key)) {
+        operations.add(operation);
+      }
+    }
+    return operations;
+  }
+
+  private static Verdict checkKey(List<Operation> operations, long stepBudget) {
+    // Lay out invocations and returns as one list in time order, a return after an invocation at the same time
+    List<Event> events = new ArrayList<>(operations.size() * 2);
+    for (int i = 0; i < operations.size(); i++) {
+      Operation operation = operations.get(i);
+      Event call = new Event(i, operation, true, operation.invokeNanos);
+      Event ret = new Event(i, operation, false, operation.returnNanos);
+      call.match = ret;
+      events.add(call);
+      events.add(ret);
+    }
+    events.sort((a, b) -> a.time != b.time ? Long.compare(a.time, b.time) : Boolean.compare(!a.isCall, !b.isCall));
+    Event head = new Event(-1, null, false, Long.MIN_VALUE);
+    Event last = head;
+    for (Event event : events) {
+      last.next = event;
+      event.prev = last;
+      last = event;
+    }
+
+    Map<BitSet, Set<String>> seen = new HashMap<>();
+    Deque<Event> taken = new ArrayDeque<>();
+    Deque<Step> states = new ArrayDeque<>(); // The value before each operation taken
+    BitSet linearized = new BitSet(operations.size());
+    String state = null; // The value of the key, null while it does not exist
+    Event event = head.next;
+    long steps = 0L;
+    while (head.next != null) {
+      if (++steps > stepBudget) {
+        return Verdict.UNKNOWN;
+      }
+      if (event.isCall) {
+        Step step = apply(state, event.operation);
+        if (step != null) {
+          BitSet next = (BitSet) linearized.clone();
+          next.set(event.id);
+          if (seen.computeIfAbsent(next, bits -> new HashSet<>()).add(step.state)) {
+            // Take the operation here and drop it from the pending events
+            taken.push(event);
+            states.push(new Step(state));
+            state = step.state;
+            linearized.set(event.id);
+            event.lift();
+            event = head.next;
+            continue;
+          }
+        }
+        event = event.next;
+      } else {
+        // An operation returned before any order could take it, so undo the last choice
+        if (taken.isEmpty()) {
+          return Verdict.VIOLATION;
+        }
+        Event undone = taken.pop();
+        state = states.pop().state;
+        linearized.clear(undone.id);
+        undone.unlift();
+        event = undone.next;
+      }
+    }
+    return Verdict.LINEARIZABLE;
+  }
+
+  /**
+   * Apply an operation to the key's value, as a single copy of the store would.
+   * @return The value afterwards, or null if the operation's recorded outcome is impossible here.
+   */
+  private static Step apply(String state, Operation operation) {
+    boolean exists = state != null;
+    switch (operation.type) {
+      case "GET":
+        if (operation.status == OperationResult.Status.OK) {
+          return exists && state.equals(operation.output) ? new Step(state) : null;
+        }
+        return !exists ? new Step(null) : null;
+      case "PUT":
+        if (!operation.isDeterminate()) {
+          return new Step(exists ? state : operation.value);
+        }
+        if (operation.status == OperationResult.Status.OK) {
+          return !exists ? new Step(operation.value) : null;
+        }
+        return exists ? new Step(state) : null;
+      case "DELETE":
+        if (!operation.isDeterminate()) {
+          return new Step(null);
+        }
+        return (operation.status == OperationResult.Status.OK) == exists ? new Step(null) : null;
+      default:
+        throw new IllegalArgumentException("Unknown operation type: " + operation.type);
+    }
+  }
+
+  /**
+   * The value of the key after an operation took effect.
+   */
+  private static class Step {
+    final String state;
+
+    Step(String state) {
+      this.state = state;
+    }
+  }
+
+  /**
+   * The invocation or the return of an operation, linked in time order.
+   */
+  private static class Event {
+    final int id;
+    final Operation operation;
+    final boolean isCall;
+    final long time;
+    Event match; // The return of an invocation
+    Event prev;
+    Event next;
+
+    Event(int id, Operation operation, boolean isCall, long time) {
+      this.id = id;
+      this.operation = operation;
+      this.isCall = isCall;
+      this.time = time;
+    }
+
+    /**
+     * Unlink this invocation and its return.
+     */
+    void lift() {
+      prev.next = next;
+      if (next != null) {
+        next.prev = prev;
+      }
+      match.prev.next = match.next;
+      if (match.next != null) {
+        match.next.prev = match.prev;
+      }
+    }
+
+    /**
+     * Link this invocation and its return back where they were.
+     */
+    void unlift() {
+      match.prev.next = match;
+      if (match.next != null) {
+        match.next.prev = match;
+      }
+      prev.next = this;
+      if (next != null) {
+        next.prev = this;
+      }
+    }
+  }
+}
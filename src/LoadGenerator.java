@@ -0,0 +1,249 @@
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The LoadGenerator drives a key-value store with many concurrent client sessions, in the manner
+ * of YCSB, and reports throughput and latency percentiles per operation type.
+ *
+ * <p>In closed-loop mode each session sends its next operation as soon as the previous one
+ * returns, which measures the throughput the cluster can sustain. In open-loop mode operations
+ * are due on a fixed schedule at a target rate, whatever the cluster does. Latency is then
+ * measured from the time an operation was due rather than from when it was sent, so a stall
+ * shows up in the latency of every operation it delayed instead of hiding them
+ * (coordinated omission).
+ *
+ * <p>Every key is inserted before the run, so a workload PUT overwrites its key unconditionally,
+ * with a write batch that checks no version, instead of an insert that would only find the key
+ * there. Every PUT thus changes the state, and the value size applies to the run as well. The
+ * report counts the outcome of every operation by status, not only the errors.
+ */
+public class LoadGenerator {
+  /**
+   * The operation types of the workload.
+   */
+  public enum OperationType { GET, PUT, DELETE }
+
+  private final String host;
+  private final int port;
+  private final int sessions;
+  private final long durationNanos;
+  private final int readPercent;
+  private final int writePercent;
+  private final int keyCount;
+  private final String value;
+  private final ZipfianGenerator zipfian; // Null for uniformly picked keys
+  private final double targetOpsPerSecond; // 0 for closed loop
+  private final boolean async;
+
+  /**
+   * Constructor to create a LoadGenerator.
+   * @param host The host of the server registry.
+   * @param port The port of the server registry.
+   * @param sessions The number of concurrent sessions, each with its own connection and thread.
+   * @param durationSeconds How long to run the workload.
+   * @param readPercent The percentage of GET operations.
+   * @param writePercent The percentage of PUT operations, which overwrite their key. The rest are DELETE operations.
+   * @param zipfian True to pick keys following a Zipfian distribution, false to pick them uniformly.
+   * @param keyCount The number of distinct keys.
+   * @param valueSize The size of the values written, in characters.
+   * @param targetOpsPerSecond The rate of an open-loop run across all sessions, 0 for a closed loop.
+   * @param async True for all sessions to share one {@link AsyncClient}, with one multiplexed
+   *     connection per server, instead of each session having its own RMI connection.
+   */
+  public LoadGenerator(String host, int port, int sessions, int durationSeconds, int readPercent, int writePercent,
+                       boolean zipfian, int keyCount, int valueSize, double targetOpsPerSecond, boolean async) {
+    if (readPercent < 0 || writePercent < 0 || readPercent + writePercent > 100) {
+      throw new IllegalArgumentException("Read and write percentages must add up to at most 100");
+    }
+    this.host = host;
+    this.port = port;
+    this.sessions = sessions;
+    this.durationNanos = durationSeconds * 1_000_000_000L;
+    this.readPercent = readPercent;
+    this.writePercent = writePercent;
+    this.keyCount = keyCount;
+    char[] chars = new char[valueSize];
+    Arrays.fill(chars, 'x');
+    this.value = new String(chars);
+    this.zipfian = zipfian ? new ZipfianGenerator(keyCount, ZipfianGenerator.DEFAULT_THETA) : null;
+    this.targetOpsPerSecond = targetOpsPerSecond;
+    this.async = async;
+  }
+
+  /**
+   * Insert every key, then run the workload and print the report.
+   * @throws Exception If a session cannot connect.
+   */
+  public void run() throws Exception {
+    Session[] running = new Session[sessions];
+    AsyncClient cluster = async ? AsyncClient.connect(host, port, AsyncClient.DEFAULT_DEADLINE_MILLIS) : null;
+    for (int i = 0; i < sessions; i++) {
+      running[i] = new Session(i, async ? null : new Client(host, port), cluster);
+    }
+    System.out.println(Utils.getCurrentTimestamp() + ", Inserting " + keyCount + " keys...");
+    runAll(running, Session::load);
+
+    String mode = (targetOpsPerSecond > 0 ? "open loop at " + targetOpsPerSecond + " ops/s" : "closed loop")
+        + (async ? ", shared async client" : "");
+    System.out.println(Utils.getCurrentTimestamp() + ", Running " + sessions + " sessions for " + durationNanos / 1_000_000_000L + " s, " + mode
+        + ", " + readPercent + "% GET, " + writePercent + "% PUT, " + (100 - readPercent - writePercent) + "% DELETE, "
+        + (zipfian != null ? "zipfian" : "uniform") + " keys over " + keyCount + " keys, " + value.length() + " character values");
+    long start = System.nanoTime();
+    runAll(running, session -> session.runWorkload(start));
+    long elapsedNanos = System.nanoTime() - start;
+    report(running, elapsedNanos);
+  }
+
+  private void runAll(Session[] running, Consumer<Session> task) throws InterruptedException {
+    Thread[] threads = new Thread[running.length];
+    for (int i = 0; i < running.length; i++) {
+      Session session = running[i];
+      threads[i] = new Thread(() -> task.accept(session), "load-session-" + i);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private void report(Session[] finished, long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    long totalOperations = 0L;
+    StringBuilder report = new StringBuilder();
+    StringBuilder outcomeReport = new StringBuilder();
+    report.append(String.format("%-8s %10s %8s %10s %9s %9s %9s %9s %9s %9s %9s%n",
+        "op", "count", "errors", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "p99.99 ms", "max ms"));
+    OperationResult.Status[] statuses = OperationResult.Status.values();
+    for (OperationType type : OperationType.values()) {
+      LatencyHistogram latencies = new LatencyHistogram();
+      long[] outcomes = new long[statuses.length + 1];
+      for (Session session : finished) {
+        latencies.add(session.latencies.get(type));
+        for (int i = 0; i < outcomes.length; i++) {
+          outcomes[i] += session.outcomes.get(type)[i];
+        }
+      }
+      // Remote exceptions are counted past the statuses
+      long errors = outcomes[statuses.length];
+      StringBuilder counts = new StringBuilder();
+      for (OperationResult.Status status : statuses) {
+        long count = outcomes[status.ordinal()];
+        if (status.isError()) {
+          errors += count;
+        }
+        if (count > 0) {
+          counts.append(", ").append(status).append(' ').append(count);
+        }
+      }
+      if (outcomes[statuses.length] > 0) {
+        counts.append(", remote errors ").append(outcomes[statuses.length]);
+      }
+      if (counts.length() > 0) {
+        outcomeReport.append(type).append(": ").append(counts.substring(2)).append('\n');
+      }
+      totalOperations += latencies.getTotalCount();
+      report.append(String.format("%-8s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+          type, latencies.getTotalCount(), errors, latencies.getTotalCount() / seconds, latencies.getMean() / 1e6,
+          millis(latencies, 50.0), millis(latencies, 90.0), millis(latencies, 99.0), millis(latencies, 99.9),
+          millis(latencies, 99.99), latencies.getMax() / 1e6));
+    }
+    System.out.println(Utils.getCurrentTimestamp() + ", " + totalOperations + " operations in " + String.format("%.1f", seconds) + " s, "
+        + String.format("%.1f", totalOperations / seconds) + " ops/s\n" + report + "Outcomes\n" + outcomeReport);
+  }
+
+  private static double millis(LatencyHistogram latencies, double percentile) {
+    return latencies.getValueAtPercentile(percentile) / 1e6;
+  }
+
+  private String pickKey() {
+    long index = zipfian != null ? zipfian.next() : ThreadLocalRandom.current().nextInt(keyCount);
+    return "user" + index;
+  }
+
+  private OperationType pickOperation() {
+    int roll = ThreadLocalRandom.current().nextInt(100);
+    if (roll < readPercent) {
+      return OperationType.GET;
+    }
+    return roll < readPercent + writePercent ? OperationType.PUT : OperationType.DELETE;
+  }
+
+  /**
+   * One client session with its own connection, or sharing the async client. It records into its
+   * own histograms, so sessions never contend with each other while measuring.
+   */
+  private class Session {
+    private final int index;
+    private final Client client; // Null when sessions share the async client
+    private final AsyncClient cluster;
+    private final Map<OperationType, LatencyHistogram> latencies = new EnumMap<>(OperationType.class);
+    private final Map<OperationType, long[]> outcomes = new EnumMap<>(OperationType.class); // Per status, then remote exceptions
+
+    Session(int index, Client client, AsyncClient cluster) {
+      this.index = index;
+      this.client = client;
+      this.cluster = cluster;
+      for (OperationType type : OperationType.values()) {
+        latencies.put(type, new LatencyHistogram());
+        outcomes.put(type, new long[OperationResult.Status.values().length + 1]);
+      }
+    }
+
+    private OperationResult execute(OperationType type, String key, String value) throws RemoteException {
+      return cluster != null ? cluster.execute(type, key, value).join() : client.execute(type, key, value);
+    }
+
+    /**
+     * Insert this session's share of the keys.
+     */
+    void load() {
+      for (int key = index; key < keyCount; key += sessions) {
+        try {
+          OperationResult result = execute(OperationType.PUT, "user" + key, value);
+          if (result.getStatus() != OperationResult.Status.OK) {
+            System.out.println(Utils.getCurrentTimestamp() + ", Could not insert user" + key + ": " + result);
+          }
+        } catch (RemoteException e) {
+          System.out.println(Utils.getCurrentTimestamp() + ", Could not insert user" + key + ": " + e.getMessage());
+        }
+      }
+    }
+
+    void runWorkload(long start) {
+      long end = start + durationNanos;
+      // Each session owns an equal share of the open-loop rate, offset so sessions do not fire together
+      long intervalNanos = targetOpsPerSecond > 0 ? (long) (sessions * 1e9 / targetOpsPerSecond) : 0L;
+      long due = start + intervalNanos * index / Math.max(1, sessions);
+      while (true) {
+        long now = System.nanoTime();
+        if (intervalNanos > 0) {
+          if (due >= end) {
+            return;
+          }
+          while (now < due) {
+            LockSupport.parkNanos(due - now);
+            now = System.nanoTime();
+          }
+        } else if (now >= end) {
+          return;
+        }
+        // Behind schedule, the operation is sent right away but its latency still counts from when it was due
+        long measuredFrom = intervalNanos > 0 ? due : now;
+        OperationType type = pickOperation();
+        try {
+          OperationResult result = execute(type, pickKey(), type == OperationType.PUT ? value : null);
+          outcomes.get(type)[result.getStatus().ordinal()]++;
+        } catch (RemoteException e) {
+          outcomes.get(type)[OperationResult.Status.values().length]++;
+        }
+        latencies.get(type).record(System.nanoTime() - measuredFrom);
+        due += intervalNanos;
+      }
+    }
+  }
+}
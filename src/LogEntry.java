@@ -0,0 +1,29 @@
+import java.io.Serializable;
+
+/**
+ * A value accepted by an acceptor for one slot of the replicated log, together with the
+ * proposal ID (ballot) it was accepted under.
+ */
+public class LogEntry implements Serializable {
+  private static final long serialVersionUID = 1L;
+  final int slot;
+  final int proposalId;
+  final Object value;
+
+  /**
+   * Constructor to create a LogEntry.
+   * @param slot The log slot the value was accepted for.
+   * @param proposalId The proposal ID the value was accepted under.
+   * @param value The accepted value.
+   */
+  LogEntry(int slot, int proposalId, Object value) {
+    this.slot = slot;
+    this.proposalId = proposalId;
+    this.value = value;
+  }
+
+  @Override
+  public String toString() {
+    return "slot " + slot + " (proposal " + proposalId + "): " + value;
+  }
+}
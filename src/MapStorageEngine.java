@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A storage engine keeping one {@link VersionedValue} per key in a hash map. Simple, but every entry
+ * costs a map node, two strings and a value object, and a snapshot copies the whole map. Kept as a
+ * reference to compare {@link CompactStorageEngine} with.
+ */
+public final class MapStorageEngine implements StorageEngine {
+  private final ConcurrentHashMap<String, VersionedValue> entries = new ConcurrentHashMap<>();
+
+  @Override
+  public VersionedValue get(String key) {
+    return entries.get(key);
+  }
+
+  @Override
+  public void put(String key, String value, long version) {
+    entries.put(key, new VersionedValue(value, version));
+  }
+
+  @Override
+  public boolean remove(String key) {
+    return entries.remove(key) != null;
+  }
+
+  @Override
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public void clear() {
+    entries.clear();
+  }
+
+  @Override
+  public Snapshot snapshot() {
+    Map<String, VersionedValue> copy = new HashMap<>(entries);
+    return new Snapshot() {
+      @Override
+      public int size() {
+        return copy.size();
+      }
+
+      @Override
+      public void forEach(EntryVisitor visitor) throws IOException {
+        for (Map.Entry<String, VersionedValue> entry : copy.entrySet()) {
+          visitor.visit(entry.getKey(), entry.getValue().value, entry.getValue().version);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,126 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * The MetricsEndpoint publishes {@link ServerMetrics} in two ways: as one JMX MBean per server and
+ * Paxos group, named {@code paxos:type=Server,id=<serverId>,group=<groupId>}, and as plain text
+ * over HTTP on the loopback interface at {@code /metrics}, one
+ * {@code paxos_<metric>{server="<id>",group="<group>"} <value>} line per metric.
+ */
+public final class MetricsEndpoint {
+  private MetricsEndpoint() {
+  }
+
+  /**
+   * Register the metrics of a server with the platform MBean server.
+   * @param metrics The metrics to expose.
+   * @throws JMException If the MBean cannot be registered.
+   */
+  public static void registerMBean(ServerMetrics metrics) throws JMException {
+    ObjectName name = new ObjectName("paxos:type=Server,id=" + metrics.getServerId() + ",group=" + metrics.getGroupId());
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), name);
+  }
+
+  /**
+   * Serve the metrics of the given servers over HTTP on the loopback interface.
+   * @param port The port to listen on.
+   * @param servers The metrics of every server in this process.
+   * @return The running HTTP server.
+   * @throws IOException If the port cannot be bound.
+   */
+  public static HttpServer startHttp(int port, ServerMetrics[] servers) throws IOException {
+    HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    http.createContext("/metrics", exchange -> {
+      StringBuilder text = new StringBuilder();
+      for (ServerMetrics metrics : servers) {
+        for (Map.Entry<String, Number> metric : metrics.snapshot().entrySet()) {
+          text.append("paxos_").append(metric.getKey()).append("{server=\"").append(metrics.getServerId())
+              .append("\",group=\"").append(metrics.getGroupId()).append("\"} ")
+              .append(metric.getValue()).append('\n');
+        }
+      }
+      byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    http.start();
+    return http;
+  }
+
+  /**
+   * A read-only MBean whose attributes are the entries of {@link ServerMetrics#snapshot()}.
+   */
+  private static class MetricsMBean implements DynamicMBean {
+    private final ServerMetrics metrics;
+    private final MBeanInfo info;
+
+    MetricsMBean(ServerMetrics metrics) {
+      this.metrics = metrics;
+      Map<String, Number> names = metrics.snapshot();
+      MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[names.size()];
+      int i = 0;
+      for (Map.Entry<String, Number> metric : names.entrySet()) {
+        attributes[i++] = new MBeanAttributeInfo(metric.getKey(), metric.getValue().getClass().getName(), metric.getKey(), true, false, false);
+      }
+      this.info = new MBeanInfo(MetricsMBean.class.getName(), "Paxos metrics of server " + metrics.getServerId() + " group " + metrics.getGroupId(), attributes, null, null, null);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Number value = metrics.snapshot().get(attribute);
+      if (value == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      Map<String, Number> values = metrics.snapshot();
+      AttributeList list = new AttributeList();
+      for (String attribute : attributes) {
+        if (values.containsKey(attribute)) {
+          list.add(new Attribute(attribute, values.get(attribute)));
+        }
+      }
+      return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException("No operations on metrics");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      return info;
+    }
+  }
+}
@@ -0,0 +1,344 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The NioPeer is the client side of the NIO transport. It stands in for a remote server's acceptor
+ * and learner, sending every call over one persistent connection to that server's
+ * {@link NioTransportServer}. Calls from many threads share the connection: each frame carries a
+ * request ID, and a reader thread hands each response to the call waiting for it. Client
+ * operations are also available without blocking, for {@link AsyncClient}.
+ *
+ * <p>Transport failures surface as RemoteException, like they do with RMI, so the Paxos roles treat
+ * both transports the same way. The connection is reopened on the next call after a failure.
+ */
+public class NioPeer implements AcceptorInterface, LearnerInterface, Closeable {
+  public static final long DEFAULT_CALL_TIMEOUT_MILLIS = 5000L;
+  private static final BufferPool BUFFERS = new BufferPool(NioTransportServer.BUFFER_BYTES, 256);
+
+  private final InetSocketAddress address;
+  private final long callTimeoutMillis;
+  private final AtomicLong nextRequestId = new AtomicLong();
+  private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+  private final Object writeLock = new Object();
+  private SocketChannel channel; // Guarded by this
+
+  /**
+   * Writes the arguments of a call.
+   */
+  private interface Arguments {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Reads the result of a call.
+   */
+  private interface Result<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  /**
+   * Constructor to create a NioPeer. The connection is opened on the first call.
+   * @param address The address of the peer's NioTransportServer.
+   * @param callTimeoutMillis How long a call waits for its response.
+   */
+  public NioPeer(InetSocketAddress address, long callTimeoutMillis) {
+    this.address = address;
+    this.callTimeoutMillis = callTimeoutMillis;
+  }
+
+  @Override
+  public int prepare(int proposalId) throws RemoteException {
+    return call(NioTransportServer.PREPARE, out -> out.writeInt(proposalId), DataInputStream::readInt);
+  }
+
+  @Override
+  public List<LogEntry> acceptedEntries(int fromSlot) throws RemoteException {
+    return call(NioTransportServer.ACCEPTED_ENTRIES, out -> out.writeInt(fromSlot), WireCodec::readEntries);
+  }
+
+  @Override
+  public boolean accept(int proposalId, int slot, Object proposalValue) throws RemoteException {
+    return call(NioTransportServer.ACCEPT, out -> {
+      out.writeInt(proposalId);
+      out.writeInt(slot);
+      WireCodec.writeValue(out, proposalValue);
+    }, DataInputStream::readBoolean);
+  }
+
+  @Override
+  public String learn(int proposalId, int slot, Object acceptedValue) throws RemoteException {
+    return call(NioTransportServer.LEARN, out -> {
+      out.writeInt(proposalId);
+      out.writeInt(slot);
+      WireCodec.writeValue(out, acceptedValue);
+    }, WireCodec::readString);
+  }
+
+  @Override
+  public int lastAppliedSlot() throws RemoteException {
+    return call(NioTransportServer.LAST_APPLIED_SLOT, out -> { }, DataInputStream::readInt);
+  }
+
+  @Override
+  public int lastSnapshotSlot() throws RemoteException {
+    return call(NioTransportServer.LAST_SNAPSHOT_SLOT, out -> { }, DataInputStream::readInt);
+  }
+
+  @Override
+  public byte[] readSnapshot(int slot, long offset, int maxBytes) throws RemoteException {
+    return call(NioTransportServer.READ_SNAPSHOT, out -> {
+      out.writeInt(slot);
+      out.writeLong(offset);
+      out.writeInt(maxBytes);
+    }, WireCodec::readBytes);
+  }
+
+  @Override
+  public List<LogEntry> chosenSince(int fromSlot, int maxEntries) throws RemoteException {
+    return call(NioTransportServer.CHOSEN_SINCE, out -> {
+      out.writeInt(fromSlot);
+      out.writeInt(maxEntries);
+    }, WireCodec::readEntries);
+  }
+
+  /**
+   * Send a GET without waiting for its result.
+   * @param key The key to read.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<OperationResult> getAsync(String key, long timeoutMillis) {
+    return send(NioTransportServer.GET, out -> WireCodec.writeString(out, key), WireCodec::readResult, timeoutMillis);
+  }
+
+  /**
+   * Send a PUT without waiting for its result.
+   * @param key The key to write.
+   * @param value The value to write.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<OperationResult> putAsync(String key, String value, long timeoutMillis) {
+    return send(NioTransportServer.PUT, out -> {
+      WireCodec.writeString(out, key);
+      WireCodec.writeString(out, value);
+    }, WireCodec::readResult, timeoutMillis);
+  }
+
+  /**
+   * Send a DELETE without waiting for its result.
+   * @param key The key to delete.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<OperationResult> deleteAsync(String key, long timeoutMillis) {
+    return send(NioTransportServer.DELETE, out -> WireCodec.writeString(out, key), WireCodec::readResult, timeoutMillis);
+  }
+
+  /**
+   * Send a multi-key GET without waiting for its result.
+   * @param keys The keys to read.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result for each key, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiGetAsync(List<String> keys, long timeoutMillis) {
+    return send(NioTransportServer.MULTI_GET, out -> WireCodec.writeKeys(out, keys), WireCodec::readResults, timeoutMillis);
+  }
+
+  /**
+   * Send a multi-key PUT without waiting for its result.
+   * @param entries The keys and values to write.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result for each key, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiPutAsync(Map<String, String> entries, long timeoutMillis) {
+    return send(NioTransportServer.MULTI_PUT, out -> {
+      WireCodec.writeKeys(out, new ArrayList<>(entries.keySet()));
+      for (String value : entries.values()) {
+        WireCodec.writeString(out, value);
+      }
+    }, WireCodec::readResults, timeoutMillis);
+  }
+
+  /**
+   * Send a multi-key DELETE without waiting for its result.
+   * @param keys The keys to delete.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result for each key, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<Map<String, OperationResult>> multiDeleteAsync(List<String> keys, long timeoutMillis) {
+    return send(NioTransportServer.MULTI_DELETE, out -> WireCodec.writeKeys(out, keys), WireCodec::readResults, timeoutMillis);
+  }
+
+  /**
+   * Send a write batch without waiting for its result.
+   * @param batch The batch to apply atomically.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The result, or a RemoteException if the call failed or timed out.
+   */
+  public CompletableFuture<OperationResult> writeAsync(WriteBatch batch, long timeoutMillis) {
+    return send(NioTransportServer.WRITE_BATCH, out -> WireCodec.writeBatch(out, batch), WireCodec::readResult, timeoutMillis);
+  }
+
+  /**
+   * Ask the server which server leads each of its Paxos groups.
+   * @param timeoutMillis How long to wait for the response.
+   * @return The leader of each group by group ID, -1 for groups without a stable leader.
+   */
+  public CompletableFuture<int[]> leadersAsync(long timeoutMillis) {
+    return send(NioTransportServer.LEADERS, out -> { }, in -> {
+      int[] leaders = new int[in.readInt()];
+      for (int i = 0; i < leaders.length; i++) {
+        leaders[i] = in.readInt();
+      }
+      return leaders;
+    }, timeoutMillis);
+  }
+
+  private <T> T call(byte method, Arguments arguments, Result<T> result) throws RemoteException {
+    try {
+      return send(method, arguments, result, callTimeoutMillis).get();
+    } catch (ExecutionException e) {
+      throw (RemoteException) e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted calling " + address);
+    }
+  }
+
+  /**
+   * Write a request and return without waiting for the response, which the reader thread completes.
+   * Any number of requests may be outstanding on the connection at once.
+   * @return The decoded result, or a RemoteException if the call failed or timed out.
+   */
+  private <T> CompletableFuture<T> send(byte method, Arguments arguments, Result<T> result, long timeoutMillis) {
+    long requestId = nextRequestId.incrementAndGet();
+    CompletableFuture<byte[]> response = new CompletableFuture<>();
+    pending.put(requestId, response);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      arguments.write(new DataOutputStream(bytes));
+      ByteBuffer frame = NioTransportServer.encodeFrame(BUFFERS, requestId, method, bytes);
+      try {
+        SocketChannel current = connect();
+        synchronized (writeLock) {
+          while (frame.hasRemaining()) {
+            current.write(frame);
+          }
+        }
+      } finally {
+        BUFFERS.release(frame);
+      }
+    } catch (IOException e) {
+      disconnect(e);
+      response.completeExceptionally(e);
+    }
+    return response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).handle((reply, error) -> {
+      pending.remove(requestId);
+      try {
+        if (error != null) {
+          throw error instanceof TimeoutException
+              ? new RemoteException("Call to " + address + " timed out after " + timeoutMillis + " ms")
+              : new RemoteException("Call to " + address + " failed", error);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(reply, 1, reply.length - 1));
+        if (reply[0] == NioTransportServer.STATUS_ERROR) {
+          throw new RemoteException("Call to " + address + " failed: " + WireCodec.readString(in));
+        }
+        return result.read(in);
+      } catch (IOException e) {
+        RemoteException failure = e instanceof RemoteException ? (RemoteException) e : new RemoteException("Bad response from " + address, e);
+        throw new CompletionException(failure);
+      }
+    });
+  }
+
+  private synchronized SocketChannel connect() throws IOException {
+    if (channel != null && channel.isOpen()) {
+      return channel;
+    }
+    SocketChannel opened = SocketChannel.open();
+    opened.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    opened.connect(address);
+    channel = opened;
+    Thread reader = new Thread(() -> readLoop(opened), "nio-peer-" + address.getPort());
+    reader.setDaemon(true);
+    reader.start();
+    return opened;
+  }
+
+  private void readLoop(SocketChannel source) {
+    ByteBuffer header = ByteBuffer.allocate(NioTransportServer.FRAME_HEADER_BYTES - 1);
+    try {
+      while (true) {
+        header.clear();
+        readFully(source, header);
+        header.flip();
+        int length = header.getInt();
+        long requestId = header.getLong();
+        if (length < NioTransportServer.FRAME_HEADER_BYTES - 4 || length > NioTransportServer.MAX_FRAME_BYTES) {
+          throw new IOException("Bad frame length " + length);
+        }
+        // The status byte stays in front of the payload
+        ByteBuffer body = ByteBuffer.allocate(length - 8);
+        readFully(source, body);
+        CompletableFuture<byte[]> response = pending.get(requestId);
+        if (response != null) {
+          response.complete(body.array());
+        }
+      }
+    } catch (IOException e) {
+      disconnect(e);
+    }
+  }
+
+  private static void readFully(SocketChannel source, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (source.read(buffer) < 0) {
+        throw new EOFException("Connection closed by peer");
+      }
+    }
+  }
+
+  private void disconnect(IOException cause) {
+    synchronized (this) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {
+          // Already closed
+        }
+        channel = null;
+      }
+    }
+    // Calls on the lost connection will never get a response
+    for (CompletableFuture<byte[]> response : pending.values()) {
+      response.completeExceptionally(cause);
+    }
+  }
+
+  @Override
+  public void close() {
+    disconnect(new EOFException("Peer closed"));
+  }
+}
@@ -0,0 +1,345 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The NioTransportServer exposes a server's acceptor and learner roles over a non-blocking socket
+ * transport, as a lighter alternative to RMI for replica-to-replica traffic. The same transport
+ * serves the client operations of a {@link ShardedServer} to {@link AsyncClient}. One selector thread
+ * reads length-prefixed binary frames from persistent connections and hands each request to a
+ * worker, so many requests can be outstanding on one connection and answered out of order.
+ *
+ * <p>Request frame: {@code [int length][long requestId][byte method][payload]}.
+ * Response frame: {@code [int length][long requestId][byte status][payload]}, where the length
+ * counts every byte after itself. Payloads are encoded with {@link WireCodec}.
+ */
+public class NioTransportServer implements Closeable {
+  static final byte PREPARE = 1;
+  static final byte ACCEPTED_ENTRIES = 2;
+  static final byte ACCEPT = 3;
+  static final byte LEARN = 4;
+  static final byte LAST_APPLIED_SLOT = 5;
+  static final byte LAST_SNAPSHOT_SLOT = 6;
+  static final byte READ_SNAPSHOT = 7;
+  static final byte CHOSEN_SINCE = 8;
+  static final byte GET = 9;
+  static final byte PUT = 10;
+  static final byte DELETE = 11;
+  static final byte LEADERS = 12;
+  static final byte MULTI_GET = 13;
+  static final byte MULTI_PUT = 14;
+  static final byte MULTI_DELETE = 15;
+  static final byte WRITE_BATCH = 16;
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+  static final int FRAME_HEADER_BYTES = 13;
+  static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+  static final int BUFFER_BYTES = 64 * 1024;
+
+  private static final AsyncLogger LOG = AsyncLogger.forSource("NIO transport");
+
+  private final ServerSocketChannel listener;
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final BufferPool buffers = new BufferPool(BUFFER_BYTES, 256);
+  private final Queue<Connection> interestChanges = new ConcurrentLinkedQueue<>();
+  private final AcceptorInterface acceptor;
+  private final LearnerInterface learner;
+  private final ShardedServer store;
+
+  /**
+   * Constructor to bind the transport and start its selector thread.
+   * @param address The address to listen on.
+   * @param acceptor The acceptor requests are dispatched to.
+   * @param learner The learner requests are dispatched to.
+   * @param name Prefix used for the transport thread names.
+   * @throws IOException If the address cannot be bound.
+   */
+  public NioTransportServer(InetSocketAddress address, AcceptorInterface acceptor, LearnerInterface learner, String name) throws IOException {
+    this(address, acceptor, learner, null, name);
+  }
+
+  /**
+   * Constructor to bind a transport for client operations and start its selector thread.
+   * @param address The address to listen on.
+   * @param store The store client operations are dispatched to.
+   * @param name Prefix used for the transport thread names.
+   * @throws IOException If the address cannot be bound.
+   */
+  public NioTransportServer(InetSocketAddress address, ShardedServer store, String name) throws IOException {
+    this(address, null, null, store, name);
+  }
+
+  private NioTransportServer(InetSocketAddress address, AcceptorInterface acceptor, LearnerInterface learner, ShardedServer store, String name)
+      throws IOException {
+    this.acceptor = acceptor;
+    this.learner = learner;
+    this.store = store;
+    this.selector = Selector.open();
+    this.listener = ServerSocketChannel.open();
+    listener.bind(address);
+    listener.configureBlocking(false);
+    listener.register(selector, SelectionKey.OP_ACCEPT);
+    // Handlers may wait on quorums, locks or fsyncs, so they never run on the selector thread
+    this.workers = Utils.newRequestExecutor(name + "-nio-worker");
+    Thread selectorThread = new Thread(this::selectLoop, name + "-nio-selector");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  /**
+   * Encode a frame into a buffer from the given pool, ready to be written.
+   * @param buffers The pool to take the buffer from.
+   * @param requestId The request ID the frame belongs to.
+   * @param code The method of a request, or the status of a response.
+   * @param payload The encoded payload.
+   * @return The flipped frame buffer, to be released to the pool after writing.
+   */
+  static ByteBuffer encodeFrame(BufferPool buffers, long requestId, byte code, ByteArrayOutputStream payload) {
+    ByteBuffer frame = buffers.acquire(FRAME_HEADER_BYTES + payload.size());
+    frame.putInt(FRAME_HEADER_BYTES - 4 + payload.size()).putLong(requestId).put(code).put(payload.toByteArray());
+    frame.flip();
+    return frame;
+  }
+
+  private void selectLoop() {
+    while (listener.isOpen()) {
+      try {
+        selector.select();
+        Connection changed;
+        while ((changed = interestChanges.poll()) != null) {
+          changed.updateInterest();
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            acceptConnection();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.flush();
+            }
+          } catch (IOException e) {
+            connection.close();
+          }
+        }
+      } catch (IOException e) {
+        LOG.error("error", e);
+      }
+    }
+  }
+
+  private void acceptConnection() throws IOException {
+    SocketChannel channel = listener.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    Connection connection = new Connection(channel);
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+  }
+
+  private void handle(Connection connection, long requestId, byte method, byte[] payload) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    byte status = STATUS_OK;
+    try {
+      dispatch(method, new DataInputStream(new ByteArrayInputStream(payload)), out);
+    } catch (IOException | RuntimeException e) {
+      status = STATUS_ERROR;
+      bytes.reset();
+      try {
+        WireCodec.writeString(out, e.toString());
+      } catch (IOException ignored) {
+        // Writing to a byte array cannot fail
+      }
+    }
+    connection.send(encodeFrame(buffers, requestId, status, bytes));
+  }
+
+  private void dispatch(byte method, DataInputStream in, DataOutputStream out) throws IOException {
+    if (store != null) {
+      dispatchClient(method, in, out);
+      return;
+    }
+    switch (method) {
+      case PREPARE -> out.writeInt(acceptor.prepare(in.readInt()));
+      case ACCEPTED_ENTRIES -> WireCodec.writeEntries(out, acceptor.acceptedEntries(in.readInt()));
+      case ACCEPT -> out.writeBoolean(acceptor.accept(in.readInt(), in.readInt(), WireCodec.readValue(in)));
+      case LEARN -> WireCodec.writeString(out, learner.learn(in.readInt(), in.readInt(), WireCodec.readValue(in)));
+      case LAST_APPLIED_SLOT -> out.writeInt(learner.lastAppliedSlot());
+      case LAST_SNAPSHOT_SLOT -> out.writeInt(learner.lastSnapshotSlot());
+      case READ_SNAPSHOT -> WireCodec.writeBytes(out, learner.readSnapshot(in.readInt(), in.readLong(), in.readInt()));
+      case CHOSEN_SINCE -> WireCodec.writeEntries(out, learner.chosenSince(in.readInt(), in.readInt()));
+      default -> throw new IOException("Unknown method " + method);
+    }
+  }
+
+  private void dispatchClient(byte method, DataInputStream in, DataOutputStream out) throws IOException {
+    switch (method) {
+      case GET -> WireCodec.writeResult(out, store.get(WireCodec.readString(in)));
+      case PUT -> WireCodec.writeResult(out, store.put(WireCodec.readString(in), WireCodec.readString(in)));
+      case DELETE -> WireCodec.writeResult(out, store.delete(WireCodec.readString(in)));
+      case MULTI_GET -> WireCodec.writeResults(out, store.multiGet(WireCodec.readKeys(in)));
+      case MULTI_PUT -> {
+        List<String> keys = WireCodec.readKeys(in);
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String key : keys) {
+          entries.put(key, WireCodec.readString(in));
+        }
+        WireCodec.writeResults(out, store.multiPut(entries));
+      }
+      case MULTI_DELETE -> WireCodec.writeResults(out, store.multiDelete(WireCodec.readKeys(in)));
+      case WRITE_BATCH -> WireCodec.writeResult(out, store.write(WireCodec.readBatch(in)));
+      case LEADERS -> {
+        int[] leaders = store.leaders();
+        out.writeInt(leaders.length);
+        for (int leader : leaders) {
+          out.writeInt(leader);
+        }
+      }
+      default -> throw new IOException("Unknown client method " + method);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    listener.close();
+    selector.wakeup();
+    workers.shutdown();
+  }
+
+  /**
+   * One persistent connection from a peer, with its partially read input and pending output.
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> outbound = new ArrayDeque<>();
+    private ByteBuffer readBuffer = buffers.acquire(BUFFER_BYTES);
+    private SelectionKey key;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Read what is available and dispatch every complete frame. Runs on the selector thread.
+     */
+    void read() throws IOException {
+      if (channel.read(readBuffer) < 0) {
+        throw new EOFException();
+      }
+      readBuffer.flip();
+      ByteBuffer larger = null;
+      while (readBuffer.remaining() >= 4) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < FRAME_HEADER_BYTES - 4 || length > MAX_FRAME_BYTES) {
+          throw new IOException("Bad frame length " + length);
+        }
+        if (readBuffer.remaining() < 4 + length) {
+          if (4 + length > readBuffer.capacity()) {
+            // A frame larger than the pooled buffer, read it into a one-off buffer
+            larger = ByteBuffer.allocate(4 + length);
+            larger.put(readBuffer);
+          }
+          break;
+        }
+        readBuffer.getInt();
+        long requestId = readBuffer.getLong();
+        byte method = readBuffer.get();
+        byte[] payload = new byte[length - (FRAME_HEADER_BYTES - 4)];
+        readBuffer.get(payload);
+        workers.execute(() -> handle(this, requestId, method, payload));
+      }
+      if (larger != null) {
+        buffers.release(readBuffer);
+        readBuffer = larger;
+      } else if (!readBuffer.hasRemaining() && readBuffer.capacity() > BUFFER_BYTES) {
+        // Done with the oversized frame, go back to a pooled buffer
+        readBuffer = buffers.acquire(BUFFER_BYTES);
+      } else {
+        readBuffer.compact();
+      }
+    }
+
+    /**
+     * Queue a response frame and write as much of it as the socket takes right away.
+     */
+    synchronized void send(ByteBuffer frame) {
+      outbound.add(frame);
+      try {
+        flush();
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    /**
+     * Write queued frames until the socket buffer is full, then wait for the selector to call again.
+     */
+    synchronized void flush() throws IOException {
+      boolean wasWaiting = !outbound.isEmpty();
+      ByteBuffer frame;
+      while ((frame = outbound.peek()) != null) {
+        channel.write(frame);
+        if (frame.hasRemaining()) {
+          break;
+        }
+        outbound.poll();
+        buffers.release(frame);
+      }
+      if (wasWaiting) {
+        interestChanges.add(this);
+        selector.wakeup();
+      }
+    }
+
+    /**
+     * Ask for write readiness only while output is pending. Runs on the selector thread.
+     */
+    synchronized void updateInterest() {
+      if (key.isValid()) {
+        key.interestOps(SelectionKey.OP_READ | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+    }
+
+    synchronized void close() {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+        // Already closed
+      }
+      outbound.clear();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The OperationBatcher collects concurrent client operations and proposes them together as one
+ * {@link Batch}, so that many operations share a single consensus round. A batch is flushed as soon
+ * as it holds maxBatchSize operations, or once its oldest operation has waited maxBatchDelayMillis.
+ * Larger batches mean fewer rounds per operation, at the cost of up to maxBatchDelayMillis of extra
+ * latency when the load is low.
+ */
+public class OperationBatcher {
+  public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+  public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1L;
+
+  private final BlockingQueue<PendingOperation> queue = new LinkedBlockingQueue<>();
+  private final int maxBatchSize;
+  private final long maxBatchDelayNanos;
+  private final BatchProposer proposer;
+  private final ExecutorService rounds;
+
+  // Metrics used to tune the size/latency tradeoff
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong operations = new AtomicLong();
+  private final AtomicLong flushedOnSize = new AtomicLong();
+  private final AtomicLong flushedOnDelay = new AtomicLong();
+  private final AtomicLong failedBatches = new AtomicLong();
+  private final AtomicLong totalQueueNanos = new AtomicLong();
+  private final AtomicLong totalRoundNanos = new AtomicLong();
+
+  /**
+   * Runs the consensus round for one batch.
+   */
+  @FunctionalInterface
+  public interface BatchProposer {
+    /**
+     * @param batch The batch to propose.
+     * @return The per-operation results as a list, a failed result, or null if the batch was not chosen.
+     * @throws RemoteException If a remote error occurs.
+     */
+    Object propose(Batch batch) throws RemoteException;
+  }
+
+  /**
+   * Constructor to create an OperationBatcher and start its flush thread.
+   * @param name Prefix used for the batcher thread names.
+   * @param maxBatchSize The number of operations that triggers an immediate flush.
+   * @param maxBatchDelayMillis The longest an operation waits for others to join its batch.
+   * @param proposer Runs the consensus round for each flushed batch.
+   */
+  public OperationBatcher(String name, int maxBatchSize, long maxBatchDelayMillis, BatchProposer proposer) {
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+    this.proposer = proposer;
+    // Several batches may be in consensus at once, the proposer's pipeline window bounds them
+    this.rounds = Utils.newRequestExecutor(name + "-batch-round");
+    Thread flusher = new Thread(this::flushLoop, name + "-batcher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Add an operation to the next batch and wait for its own result.
+   * @param operation The operation to propose.
+   * @return The result of applying the operation.
+   */
+  public OperationResult submit(Object operation) {
+    PendingOperation pending = new PendingOperation(operation);
+    queue.add(pending);
+    try {
+      return pending.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return OperationResult.failed(OperationResult.Status.FAILED, "Interrupted while waiting for operation: " + operation);
+    } catch (ExecutionException e) {
+      return OperationResult.failed(OperationResult.Status.FAILED, "Operation failed: " + operation + ", " + e.getCause());
+    }
+  }
+
+  private void flushLoop() {
+    try {
+      while (true) {
+        PendingOperation first = queue.take();
+        List<PendingOperation> batch = new ArrayList<>();
+        batch.add(first);
+        long deadline = first.enqueuedNanos + maxBatchDelayNanos;
+        while (batch.size() < maxBatchSize) {
+          long wait = deadline - System.nanoTime();
+          PendingOperation next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        (batch.size() >= maxBatchSize ? flushedOnSize : flushedOnDelay).incrementAndGet();
+        rounds.execute(() -> runRound(batch));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runRound(List<PendingOperation> batch) {
+    long start = System.nanoTime();
+    List<Object> values = new ArrayList<>(batch.size());
+    for (PendingOperation pending : batch) {
+      values.add(pending.operation);
+      totalQueueNanos.addAndGet(start - pending.enqueuedNanos);
+    }
+    Object outcome;
+    try {
+      outcome = proposer.propose(new Batch(values));
+    } catch (RemoteException | RuntimeException e) {
+      outcome = null;
+    }
+    batches.incrementAndGet();
+    operations.addAndGet(batch.size());
+    totalRoundNanos.addAndGet(System.nanoTime() - start);
+
+    // Hand every waiting caller the result of its own operation
+    if (outcome instanceof List) {
+      List<?> results = (List<?>) outcome;
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).result.complete((OperationResult) results.get(i));
+      }
+      return;
+    }
+    failedBatches.incrementAndGet();
+    for (PendingOperation pending : batch) {
+      pending.result.complete(outcome != null ? (OperationResult) outcome
+          : OperationResult.failed(OperationResult.Status.NO_QUORUM, "Could not reach a quorum, the operation may or may not take effect: " + pending.operation));
+    }
+  }
+
+  /**
+   * @return The number of batches proposed so far.
+   */
+  public long getBatches() {
+    return batches.get();
+  }
+
+  /**
+   * @return The number of operations proposed so far.
+   */
+  public long getOperations() {
+    return operations.get();
+  }
+
+  /**
+   * @return A one-line summary of the batching metrics.
+   */
+  public String statsSummary() {
+    long batchCount = Math.max(1, batches.get());
+    long operationCount = Math.max(1, operations.get());
+    return String.format("batches=%d ops=%d avgBatchSize=%.1f flushedOnSize=%d flushedOnDelay=%d failed=%d avgQueueMs=%.3f avgRoundMs=%.3f",
+        batches.get(), operations.get(), (double) operations.get() / batchCount, flushedOnSize.get(), flushedOnDelay.get(),
+        failedBatches.get(), totalQueueNanos.get() / 1e6 / operationCount, totalRoundNanos.get() / 1e6 / batchCount);
+  }
+
+  /**
+   * Static class representing a client operation waiting to be batched.
+   */
+  private static class PendingOperation {
+    final Object operation;
+    final long enqueuedNanos = System.nanoTime();
+    final CompletableFuture<OperationResult> result = new CompletableFuture<>();
+
+    PendingOperation(Object operation) {
+      this.operation = operation;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The outcome of a client operation: a status, the value read by a successful GET, the version of
+ * the key, and the log slot at which the operation took effect, which orders it against every
+ * other operation. A multi-key operation also carries one result per key. Its size does not depend
+ * on the size of the store.
+ */
+public class OperationResult implements Serializable {
+  private static final long serialVersionUID = 1L;
+  /** The version of a key that does not exist. */
+  public static final long NO_VERSION = -1L;
+
+  /**
+   * Whether an operation took effect, and if not, why.
+   */
+  public enum Status {
+    /** The operation was applied. */
+    OK,
+    /** GET or DELETE of a key that does not exist. */
+    NOT_FOUND,
+    /** PUT of a key that already exists. */
+    ALREADY_EXISTS,
+    /** A write batch was not applied because a key did not have its expected version. */
+    CONFLICT,
+    /**
+     * No quorum answered in time. The operation may or may not have been chosen, and may still
+     * take effect later, as when some acceptors accepted it and another proposer finishes the slot.
+     */
+    NO_QUORUM,
+    /** The operation was chosen but not applied in time, it will still take effect. */
+    TIMED_OUT,
+    /** The operation could not be carried out. */
+    FAILED,
+    /**
+     * Other proposers pre-empted every attempt within the retry budget. Like NO_QUORUM, the
+     * operation may or may not have been chosen: a pre-empted attempt can leave it accepted in its
+     * slot, where the proposer that pre-empted it recovers and chooses it.
+     */
+    CONTENDED;
+
+    /**
+     * @return True if the operation did not get an answer from the store, in which case it may or
+     *     may not take effect. Retrying a PUT or DELETE after an error can thus find its own write,
+     *     and answer ALREADY_EXISTS or NOT_FOUND.
+     */
+    public boolean isError() {
+      return this == NO_QUORUM || this == TIMED_OUT || this == FAILED || this == CONTENDED;
+    }
+  }
+
+  private final Status status;
+  private final String value;
+  private final int slot;
+  private final String message;
+  private final long version;
+  private final List<OperationResult> results;
+
+  private OperationResult(Status status, String value, int slot, String message, long version, List<OperationResult> results) {
+    this.status = status;
+    this.value = value;
+    this.slot = slot;
+    this.message = message;
+    this.version = version;
+    this.results = results;
+  }
+
+  /**
+   * @param status The status of an applied operation.
+   * @param value The value read, or null.
+   * @param slot The log slot at which the operation was applied.
+   * @return The result, with no version.
+   */
+  public static OperationResult applied(Status status, String value, int slot) {
+    return new OperationResult(status, value, slot, null, NO_VERSION, null);
+  }
+
+  /**
+   * @param status The status of an applied operation.
+   * @param value The value read, or null.
+   * @param slot The log slot at which the operation was applied.
+   * @param version The version the key has after the operation, {@link #NO_VERSION} if it does not exist.
+   * @return The result.
+   */
+  public static OperationResult applied(Status status, String value, int slot, long version) {
+    return new OperationResult(status, value, slot, null, version, null);
+  }
+
+  /**
+   * @param slot The log slot at which the multi-key operation was applied.
+   * @param results The result for each key, in the order of the keys of the operation.
+   * @return The result of the whole operation.
+   */
+  public static OperationResult multi(int slot, List<OperationResult> results) {
+    return new OperationResult(Status.OK, null, slot, null, NO_VERSION, results);
+  }
+
+  /**
+   * @param status The status of an operation that did not take effect.
+   * @param message What went wrong.
+   * @return The result, with no slot.
+   */
+  public static OperationResult failed(Status status, String message) {
+    return new OperationResult(status, null, -1, message, NO_VERSION, null);
+  }
+
+  /**
+   * @param status The status of an operation that was applied without effect.
+   * @param slot The log slot at which the operation was applied.
+   * @param message Why it had no effect.
+   * @return The result.
+   */
+  public static OperationResult rejected(Status status, int slot, String message) {
+    return new OperationResult(status, null, slot, message, NO_VERSION, null);
+  }
+
+  /**
+   * @return Whether the operation took effect, and if not, why.
+   */
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return The value read by a successful GET, null otherwise.
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * @return The log slot the operation was applied at, -1 if it was not applied.
+   */
+  public int getSlot() {
+    return slot;
+  }
+
+  /**
+   * @return What went wrong for an error status, null otherwise.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * @return The version of the key after the operation, to make a later write conditional on it,
+   *     or {@link #NO_VERSION} if the key does not exist.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return The result for each key of a multi-key operation, null for single-key operations.
+   */
+  public List<OperationResult> getResults() {
+    return results;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder(status.name());
+    if (value != null) {
+      text.append(" value=").append(value);
+    }
+    if (version != NO_VERSION) {
+      text.append(" version=").append(version);
+    }
+    if (slot >= 0) {
+      text.append(" slot=").append(slot);
+    }
+    if (results != null) {
+      text.append(' ').append(results);
+    }
+    if (message != null) {
+      text.append(" (").append(message).append(')');
+    }
+    return text.toString();
+  }
+}
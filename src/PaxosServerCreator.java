@@ -1,5 +1,11 @@
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The PaxosServerCreator class is responsible for creating and binding the Paxos servers
@@ -15,18 +21,83 @@ public class PaxosServerCreator {
     try {
       System.out.println("Starting the server...");
       boolean enableTimeout = true; // Default
-      if (args.length != 3) {
-        System.err.println("Usage: java PaxosServerCreator <IP address> <serverPort> <true/false to enable timeout>");
+      boolean multiPaxos = false; // Default
+      int pipelineWindow = Server.DEFAULT_PIPELINE_WINDOW; // Default
+      int maxBatchSize = OperationBatcher.DEFAULT_MAX_BATCH_SIZE; // Default
+      long maxBatchDelayMillis = OperationBatcher.DEFAULT_MAX_BATCH_DELAY_MILLIS; // Default
+      String dataDirectory = "paxos-data"; // Default
+      String transport = "direct"; // Default
+      int numGroups = 1; // Default
+      int retryBudget = Integer.getInteger("paxos.retries", ContentionBackoff.DEFAULT_RETRY_BUDGET); // Attempts per pre-empted operation
+      int watchHistory = Integer.getInteger("paxos.watch.history", ChangeFeed.DEFAULT_CAPACITY); // Changes kept for watchers
+      if (args.length < 3 || args.length > 10) {
+        System.err.println("Usage: java PaxosServerCreator <IP address> <serverPort> <true/false to enable timeout> [true/false for multi-paxos leader] [pipeline window] [max batch size] [max batch delay ms] [data directory] [direct/rmi/nio transport] [paxos groups]");
         System.exit(1);
       }
       if (args[2].equalsIgnoreCase("false")) {
         enableTimeout = false; // Set to false if "false" for timeout
       }
-      int numServers = 5; // Total number of servers
+      if (args.length >= 4 && args[3].equalsIgnoreCase("true")) {
+        multiPaxos = true; // Stable leader skips phase 1 for steady-state operations
+      }
+      if (args.length >= 5) {
+        pipelineWindow = Integer.parseInt(args[4]); // Log slots the leader may have in flight at once
+      }
+      if (args.length >= 6) {
+        maxBatchSize = Integer.parseInt(args[5]); // 1 proposes every operation on its own
+      }
+      if (args.length >= 7) {
+        maxBatchDelayMillis = Long.parseLong(args[6]);
+      }
+      if (args.length >= 8) {
+        dataDirectory = args[7]; // Each server keeps its write-ahead log in a sub-directory
+      }
+      if (args.length >= 9) {
+        transport = args[8].toLowerCase(); // How servers reach each other's acceptors and learners
+      }
+      if (args.length == 10) {
+        numGroups = Integer.parseInt(args[9]); // Independent Paxos groups the key space is split over
+      }
+      if (!transport.equals("direct") && !transport.equals("rmi") && !transport.equals("nio")) {
+        System.err.println("Unknown transport " + transport + ", expected direct, rmi or nio");
+        System.exit(1);
+      }
+      if (numGroups < 1) {
+        System.err.println("The number of paxos groups must be at least 1");
+        System.exit(1);
+      }
+      int numServers = Integer.getInteger("paxos.servers", 5); // Total number of servers
+      if (numServers < 1) {
+        System.err.println("The number of servers must be at least 1");
+        System.exit(1);
+      }
+      // The acceptors the groups start with, every server and majority quorums unless set otherwise
+      Configuration initialConfiguration = Configuration.allOf(numServers);
+      String members = System.getProperty("paxos.members");
+      int phaseTwoQuorum = Integer.getInteger("paxos.quorum", 0);
+      if (members != null || phaseTwoQuorum != 0) {
+        List<Integer> memberIds = new ArrayList<>();
+        for (String member : (members != null ? members : "").split(",")) {
+          if (!member.isBlank()) {
+            memberIds.add(Integer.parseInt(member.trim()));
+          }
+        }
+        if (members == null) {
+          for (int serverId = 0; serverId < numServers; serverId++) {
+            memberIds.add(serverId);
+          }
+        }
+        initialConfiguration = new Configuration(memberIds, phaseTwoQuorum, numServers);
+      }
+      System.out.println("Starting " + numServers + " servers with " + initialConfiguration);
       String host = args[0];
       int basePort = Integer.parseInt(args[1]); // Starting port number
 
-      Server[] servers = new Server[numServers];
+      // servers[serverId][groupId] is the replica of one Paxos group hosted by one server
+      Server[][] servers = new Server[numServers][numGroups];
+      Object[][] stubs = new Object[numServers][numGroups];
+      ShardedServer[] fronts = new ShardedServer[numServers];
+      List<InetSocketAddress> clientAddresses = new ArrayList<>();
 
       // Create and bind servers
       for (int serverId = 0; serverId < numServers; serverId++) {
@@ -35,37 +106,113 @@ public class PaxosServerCreator {
         // Create RMI registry at the specified port
         Registry registry = LocateRegistry.createRegistry(port);
 
-        // Create server instance
-        servers[serverId] = new Server(serverId, numServers, enableTimeout);
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+          // Create server instance
+          Server server = new Server(serverId, numServers, enableTimeout, multiPaxos, groupId, numGroups);
+          server.setPipelineWindow(pipelineWindow);
+          server.setBatching(maxBatchSize, maxBatchDelayMillis);
+          server.setRetryBudget(retryBudget);
+          server.setWatchHistory(watchHistory);
+          server.setConfiguration(initialConfiguration);
+
+          // Restore promises, accepted values and the key-value store from the last run
+          Path logDirectory = Paths.get(dataDirectory, "server" + serverId);
+          server.recoverFrom(new WriteAheadLog(numGroups == 1 ? logDirectory : logDirectory.resolve("group" + groupId)));
+
+          // Export the server so peers call into this process instead of receiving a serialized copy
+          servers[serverId][groupId] = server;
+          stubs[serverId][groupId] = UnicastRemoteObject.exportObject(server, 0);
+
+          if (transport.equals("nio")) {
+            // Replica traffic gets its own port range above the client ports, one range per group
+            int transportPort = basePort + numServers * (2 + groupId) + serverId;
+            new NioTransportServer(new InetSocketAddress(host, transportPort), server, server, "server" + serverId + "-group" + groupId);
+            System.out.println("Server " + serverId + " accepts replica traffic of group " + groupId + " over NIO at port " + transportPort);
+          }
+        }
 
-        // Bind the server to the RMI registry
-        registry.rebind("KVStoreInterface", servers[serverId]);
+        // Clients see one store, each call is routed to the group that owns its key
+        fronts[serverId] = new ShardedServer(servers[serverId]);
+        registry.rebind("KVStoreInterface", UnicastRemoteObject.exportObject(fronts[serverId], 0));
 
-        System.out.println("Server " + serverId + " is ready at port " + port);
+        // Asynchronous clients send their operations over NIO, on the port range after the registries
+        clientAddresses.add(new InetSocketAddress(host, basePort + numServers + serverId));
+        new NioTransportServer(clientAddresses.get(serverId), fronts[serverId], "server" + serverId + "-client");
 
+        System.out.println("Server " + serverId + " is ready at port " + port + " with " + numGroups + " paxos group(s)");
       }
 
-      // Set acceptors and learners for each server
+      for (ShardedServer front : fronts) {
+        front.setClientAddresses(clientAddresses);
+      }
+
+      // Set acceptors, learners and proposers for each replica, among the replicas of the same group
       for (int serverId = 0; serverId < numServers; serverId++) {
-        AcceptorInterface[] acceptors = new AcceptorInterface[numServers];
-        LearnerInterface[] learners = new LearnerInterface[numServers];
-        for (int i = 0; i < numServers; i++) {
-          if (i != serverId) {
-            acceptors[i] = servers[i];
-            learners[i] = servers[i];
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+          AcceptorInterface[] acceptors = new AcceptorInterface[numServers];
+          LearnerInterface[] learners = new LearnerInterface[numServers];
+          ProposerInterface[] proposers = new ProposerInterface[numServers];
+          for (int i = 0; i < numServers; i++) {
+            if (i == serverId) {
+              continue;
+            }
+            switch (transport) {
+              case "rmi" -> {
+                // Every call goes through the peer's exported stub, as it would across machines
+                acceptors[i] = (AcceptorInterface) stubs[i][groupId];
+                learners[i] = (LearnerInterface) stubs[i][groupId];
+                proposers[i] = (ProposerInterface) stubs[i][groupId];
+              }
+              case "nio" -> {
+                NioPeer peer = new NioPeer(new InetSocketAddress(host, basePort + numServers * (2 + groupId) + i), NioPeer.DEFAULT_CALL_TIMEOUT_MILLIS);
+                acceptors[i] = peer;
+                learners[i] = peer;
+                // Forwarded client operations are rare, so they stay on RMI
+                proposers[i] = (ProposerInterface) stubs[i][groupId];
+              }
+              default -> {
+                acceptors[i] = servers[i][groupId];
+                learners[i] = servers[i][groupId];
+                proposers[i] = servers[i][groupId];
+              }
+            }
           }
+          servers[serverId][groupId].setAcceptors(acceptors);
+          servers[serverId][groupId].setLearners(learners);
+          servers[serverId][groupId].setProposers(proposers);
         }
-        servers[serverId].setAcceptors(acceptors);
-        servers[serverId].setLearners(learners);
       }
+      // Publish per-phase metrics over JMX and on a local HTTP endpoint
+      ServerMetrics[] metrics = new ServerMetrics[numServers * numGroups];
+      for (int serverId = 0; serverId < numServers; serverId++) {
+        for (int groupId = 0; groupId < numGroups; groupId++) {
+          metrics[serverId * numGroups + groupId] = servers[serverId][groupId].getMetrics();
+          MetricsEndpoint.registerMBean(metrics[serverId * numGroups + groupId]);
+        }
+      }
+      int metricsPort = basePort + numServers * (2 + numGroups);
+      MetricsEndpoint.startHttp(metricsPort, metrics);
+      System.out.println("Metrics at http://localhost:" + metricsPort + "/metrics and over JMX under paxos:type=Server");
       System.out.println("Servers ready...");
 
+      int tick = 0;
       while (true) {
         try {
           Thread.sleep(1000); // Sleep for 1 second (adjust as needed)
         } catch (InterruptedException e) {
           e.printStackTrace();
         }
+        // Report batching metrics every 10 seconds for servers that proposed anything
+        if (++tick % 10 == 0) {
+          for (int serverId = 0; serverId < numServers; serverId++) {
+            for (int groupId = 0; groupId < numGroups; groupId++) {
+              String stats = servers[serverId][groupId].getBatchingStats();
+              if (stats != null && !stats.startsWith("batches=0 ")) {
+                AsyncLogger.forSource(numGroups == 1 ? "Server " + serverId : "Server " + serverId + " group " + groupId).info("batching: " + stats);
+              }
+            }
+          }
+        }
       }
 
     } catch (Exception e) {
@@ -0,0 +1,276 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The PeerFanOut class sends one Paxos phase to every peer at the same time and lets the proposer
+ * continue as soon as a quorum has answered. Each peer has two lanes of its own: one for the
+ * prepares and accepts a proposer waits on, and one for learn broadcasts nobody waits on, so a
+ * burst of learns never queues ahead of the next accept. A lane runs up to a bounded number of
+ * calls at once, normally the pipeline window, so the slots a leader has in flight overlap on the
+ * network instead of taking one round trip each. Peers are contacted in parallel, and calls to the
+ * same peer may be delivered in any order, which Paxos does not mind.
+ *
+ * <p>Peers the {@link FailureDetector} suspects are left out of a quorum call as long as the other
+ * peers can still make the quorum, and a quorum call gives up after its deadline, so a dead or
+ * paused peer costs a proposer nothing instead of holding it until a transport timeout. Single
+ * calls a caller waits on, such as a forward to the leader or a catch-up read, run on a separate
+ * pool through {@link #request} and {@link #callWithin}, so the caller can stop waiting on a peer
+ * that stopped answering.
+ */
+public class PeerFanOut {
+  public static final long DEFAULT_CALL_TIMEOUT_MILLIS = 2000L;
+  private static final long IDLE_THREAD_SECONDS = 30L;
+  private final ThreadPoolExecutor[] quorumLanes;
+  private final ThreadPoolExecutor[] broadcastLanes;
+  private final ExecutorService requests;
+  private final ServerMetrics metrics;
+  private final FailureDetector detector;
+  private final long callTimeoutNanos;
+
+  /**
+   * A single remote call made against one peer.
+   * @param <P> The peer interface type.
+   */
+  @FunctionalInterface
+  public interface PeerCall<P> {
+    /**
+     * @param peer The peer to call.
+     * @return True if the peer answered positively.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    boolean call(P peer) throws RemoteException;
+  }
+
+  /**
+   * A single remote call made against one peer that returns a value.
+   * @param <P> The peer interface type.
+   * @param <T> The type of the answer.
+   */
+  @FunctionalInterface
+  public interface PeerRequest<P, T> {
+    /**
+     * @param peer The peer to call.
+     * @return The peer's answer.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    T call(P peer) throws RemoteException;
+  }
+
+  /**
+   * Constructor to create the per-peer lanes.
+   * @param numPeers The number of peers, lanes are created per peer index.
+   * @param name Prefix used for the lane thread names.
+   * @param metrics Records the latency of every call by peer.
+   * @param detector Tells which peers to leave out of quorum calls.
+   * @param callTimeoutMillis How long a quorum call waits for answers.
+   * @param maxInFlight The most calls each lane runs against its peer at once.
+   */
+  public PeerFanOut(int numPeers, String name, ServerMetrics metrics, FailureDetector detector, long callTimeoutMillis,
+                    int maxInFlight) {
+    this.metrics = metrics;
+    this.detector = detector;
+    this.callTimeoutNanos = callTimeoutMillis * 1_000_000L;
+    this.quorumLanes = new ThreadPoolExecutor[numPeers];
+    this.broadcastLanes = new ThreadPoolExecutor[numPeers];
+    for (int i = 0; i < numPeers; i++) {
+      quorumLanes[i] = newLane(name + "-peer" + i, maxInFlight);
+      broadcastLanes[i] = newLane(name + "-peer" + i + "-learn", maxInFlight);
+    }
+    // Not bounded like the lanes: a request queued behind others would use up its caller's deadline
+    this.requests = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, name + "-request");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Change how many calls each lane runs against its peer at once, as when the pipeline window changes.
+   * @param maxInFlight The most calls in flight per lane.
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    int threads = Math.max(1, maxInFlight);
+    for (ThreadPoolExecutor lane : quorumLanes) {
+      resize(lane, threads);
+    }
+    for (ThreadPoolExecutor lane : broadcastLanes) {
+      resize(lane, threads);
+    }
+  }
+
+  private static void resize(ThreadPoolExecutor lane, int threads) {
+    // The core size may never exceed the maximum, so grow the maximum first and shrink it last
+    if (threads > lane.getMaximumPoolSize()) {
+      lane.setMaximumPoolSize(threads);
+      lane.setCorePoolSize(threads);
+    } else {
+      lane.setCorePoolSize(threads);
+      lane.setMaximumPoolSize(threads);
+    }
+  }
+
+  /**
+   * @return A lane that starts threads as calls queue up, up to the given number, and lets them go when idle.
+   */
+  private static ThreadPoolExecutor newLane(String threadName, int maxInFlight) {
+    int threads = Math.max(1, maxInFlight);
+    ThreadPoolExecutor lane = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread thread = new Thread(r, threadName);
+          thread.setDaemon(true);
+          return thread;
+        });
+    lane.allowCoreThreadTimeOut(true);
+    return lane;
+  }
+
+  /**
+   * Call every non-null peer in parallel and wait until the given number of them answered true.
+   * Suspected peers are only called if the others are too few for the quorum. Returns early once
+   * the quorum is reached, can no longer be reached, or the call timeout passed. Calls that have
+   * not started yet are cancelled, and replies that arrive later are ignored.
+   * @param peers The peers to call, null entries are skipped.
+   * @param call The call to make against each peer.
+   * @param quorum The number of positive answers to wait for.
+   * @return The number of positive answers received before returning.
+   */
+  public <P> int awaitQuorum(P[] peers, PeerCall<P> call, int quorum) {
+    long deadline = System.nanoTime() + callTimeoutNanos;
+    boolean[] skip = new boolean[peers.length];
+    int live = 0;
+    for (int i = 0; i < peers.length; i++) {
+      skip[i] = peers[i] != null && detector.isSuspected(i);
+      if (peers[i] != null && !skip[i]) {
+        live++;
+      }
+    }
+    if (live < quorum) {
+      // Better to wait on a suspected peer than to give up on the quorum right away
+      skip = new boolean[peers.length];
+    }
+    BlockingQueue<Boolean> replies = new LinkedBlockingQueue<>();
+    List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+    for (int i = 0; i < peers.length; i++) {
+      P peer = peers[i];
+      if (peer == null || skip[i]) {
+        continue;
+      }
+      int index = i;
+      CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> {
+        try {
+          return timedCall(index, peer, call::call);
+        } catch (RemoteException e) {
+          return false;
+        }
+      }, quorumLanes[i]);
+      future.whenComplete((ok, error) -> replies.offer(error == null && ok));
+      pending.add(future);
+    }
+
+    int positive = 0;
+    int remaining = pending.size();
+    try {
+      while (positive < quorum && positive + remaining >= quorum) {
+        Boolean reply = replies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (reply == null) {
+          break;
+        }
+        if (reply) {
+          positive++;
+        }
+        remaining--;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (CompletableFuture<Boolean> future : pending) {
+      future.cancel(false);
+    }
+    return positive;
+  }
+
+  /**
+   * Start one call against a peer and return its answer as a future, for a caller that decides
+   * itself how long to wait. The future fails with the RemoteException if the call fails.
+   * @param index The peer index.
+   * @param peer The peer to call.
+   * @param call The call to make.
+   * @return The answer.
+   */
+  public <P, T> CompletableFuture<T> request(int index, P peer, PeerRequest<P, T> call) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return timedCall(index, peer, call);
+      } catch (RemoteException e) {
+        throw new CompletionException(e);
+      }
+    }, requests);
+  }
+
+  /**
+   * Make one call against a peer and wait for its answer at most the call timeout.
+   * @param index The peer index.
+   * @param peer The peer to call.
+   * @param call The call to make.
+   * @return The answer.
+   * @throws RemoteException If the call fails or the peer does not answer in time.
+   */
+  public <P, T> T callWithin(int index, P peer, PeerRequest<P, T> call) throws RemoteException {
+    CompletableFuture<T> answer = request(index, peer, call);
+    try {
+      return answer.get(callTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      answer.cancel(false);
+      throw new RemoteException("Peer " + index + " did not answer within " + TimeUnit.NANOSECONDS.toMillis(callTimeoutNanos) + " ms");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RemoteException remote ? remote : new RemoteException("Call to peer " + index + " failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while calling peer " + index, e);
+    }
+  }
+
+  /**
+   * Send a call to every non-null peer without waiting for any reply.
+   * @param peers The peers to call, null entries are skipped.
+   * @param call The call to make against each peer.
+   */
+  public <P> void broadcast(P[] peers, PeerCall<P> call) {
+    for (int i = 0; i < peers.length; i++) {
+      P peer = peers[i];
+      int index = i;
+      if (peer != null) {
+        broadcastLanes[i].execute(() -> {
+          try {
+            timedCall(index, peer, call::call);
+          } catch (RemoteException e) {
+            // Nobody waits on this reply, a failed peer simply misses the message
+          }
+        });
+      }
+    }
+  }
+
+  private <P, T> T timedCall(int index, P peer, PeerRequest<P, T> call) throws RemoteException {
+    long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      T answer = call.call(peer);
+      failed = false;
+      return answer;
+    } finally {
+      metrics.recordPeerCall(index, System.nanoTime() - start, failed);
+    }
+  }
+}
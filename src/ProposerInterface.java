@@ -12,7 +12,18 @@ public interface ProposerInterface extends Remote {
    *
    * @param proposalId The unique identifier for the proposal.
    * @param proposalValue The value being proposed.
+   * @return The result of applying the value.
    * @throws RemoteException If a remote invocation error occurs.
    */
-  String propose(int proposalId, Object proposalValue) throws RemoteException;
+  OperationResult propose(int proposalId, Object proposalValue) throws RemoteException;
+
+  /**
+   * Submits a value to this proposer acting as the Multi-Paxos leader. The leader picks the ballot
+   * itself and only runs phase 1 when it does not already hold a prepared ballot.
+   *
+   * @param proposalValue The value being proposed.
+   * @return The result of applying the value.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  OperationResult submit(Object proposalValue) throws RemoteException;
 }
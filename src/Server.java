@@ -1,27 +1,107 @@
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Implementation of a Server class that represents a node in a Paxos distributed consensus system.
  * This server plays the role of Proposer, Acceptor, and Learner in the Paxos algorithm, and it also handles key-value store operations.
+ *
+ * <p>The three roles do not share a lock. The proposer holds its own lock across remote rounds. The
+ * acceptor keeps its promise in an atomic ballot register and merges accepts into a concurrent map
+ * per slot; accepts share the read side of a read-write lock, which a prepare takes exclusively.
+ * The learner applies the log in order under a lock that is never held across a remote call. A
+ * proposer waiting on a quorum thus never holds up this server's acceptor or learner. Compacting
+ * the write-ahead log also takes the ballot lock exclusively, inside the learner lock. Locks are
+ * taken in the order proposer, then learner, then ballot.
  */
 public class Server implements ProposerInterface, AcceptorInterface, LearnerInterface, KVStoreInterface, Serializable {
-  private ConcurrentHashMap<String, String> kvStore = new ConcurrentHashMap<>();
+  private static final long serialVersionUID = 1L;
+  private transient volatile StorageEngine kvStore = StorageEngine.create(); // Written only by the learner, under learnerLock, and replaced whole by an installed snapshot
   private AcceptorInterface[] acceptors;
   private LearnerInterface[] learners;
+  private ProposerInterface[] proposers;
   private int numServers;
   private int serverId;
-  private int highestPromisedProposalId = -1;
-  private int highestAcceptedProposalId = -1;
-  private Operation acceptedProposalValue = null;
+  private transient String name; // Server, and group when there are several, as printed in logs and errors
+  private transient String threadName;
+  private final AtomicInteger highestPromisedProposalId = new AtomicInteger(-1); // The acceptor's ballot register
+  private ConcurrentHashMap<Integer, LogEntry> acceptedLog = new ConcurrentHashMap<>(); // Acceptor state per slot
+  private ConcurrentHashMap<Integer, Object> decidedLog = new ConcurrentHashMap<>(); // Learned slots not applied yet
+  private ConcurrentHashMap<Integer, Object> chosenLog = new ConcurrentHashMap<>(); // Applied slots above the snapshot, kept for catch-up
+  private volatile int nextApplySlot = 0;
+  private volatile int snapshotSlot = -1; // Last slot covered by the newest snapshot
+  private AtomicInteger nextSlot = new AtomicInteger(0);
   private AtomicInteger proposalNumber = new AtomicInteger(0);
-  private String response = "";
-  private static final long THREAD_TIMEOUT = 5000L; // 5 seconds
+  private static final long APPLY_TIMEOUT = 10000L; // 10 seconds
+  private static final long FORWARD_TIMEOUT = APPLY_TIMEOUT + PeerFanOut.DEFAULT_CALL_TIMEOUT_MILLIS; // Longest a leader takes to answer a forward
+  private static final long FORWARD_CHECK_MILLIS = 50L; // How often a forward checks whether the leader is suspected
+  public static final int DEFAULT_PIPELINE_WINDOW = 16;
+  public static final int DEFAULT_SNAPSHOT_INTERVAL = 10000; // Applied slots between snapshots
+  private static final int CATCH_UP_PAGE = 1000; // Log entries per state transfer call
+  private static final int CATCH_UP_CHUNK_BYTES = 1 << 20; // Snapshot bytes per state transfer call
+  private static final long CATCH_UP_PERIOD = 1000L; // 1 second
+  private static final long DUMP_VIEW_MILLIS = 30000L; // How long a dump keeps paging over the view its first page sorted
   private boolean enableTimeout = true;
-
+  private transient Random faultRandom = new Random(); // Decides the simulated accept failures
+  private boolean multiPaxos = false;
+  private volatile int leaderId;
+  private volatile int leaderBallot = -1; // Ballot of a completed phase 1, -1 while this server is not a prepared leader
+  private volatile long leaderContactNanos; // When this acceptor last heard from the current leader
+  private volatile int leaderSlot = Integer.MAX_VALUE; // The slot the current leader last sent an accept for
+  private transient LeaderLease lease = new LeaderLease(LeaderLease.DEFAULT_DURATION_MILLIS);
+  private transient ReentrantLock proposerLock = new ReentrantLock(); // Held across remote rounds, so not a monitor
+  // Accepts share the read side and run in parallel; a prepare takes the write side, so no accept of a lower ballot is midway when it promises,
+  // and so does the start of a compaction, so no logged promise or accept is midway when the state to checkpoint is copied
+  private transient ReentrantReadWriteLock ballotLock = new ReentrantReadWriteLock();
+  private transient Object learnerLock = new Object(); // Orders applying the log, never held across a remote call
+  private transient Semaphore inFlight = new Semaphore(DEFAULT_PIPELINE_WINDOW);
+  private transient ConcurrentHashMap<Integer, PendingResult> pendingResults = new ConcurrentHashMap<>();
+  private transient PeerFanOut fanOut;
+  private transient FailureDetector detector;
+  private transient ContentionBackoff backoff = new ContentionBackoff(ContentionBackoff.DEFAULT_RETRY_BUDGET,
+      ContentionBackoff.DEFAULT_BASE_DELAY_MILLIS, ContentionBackoff.DEFAULT_MAX_DELAY_MILLIS);
+  private transient ServerMetrics metrics;
+  private transient AsyncLogger log;
+  private transient OperationBatcher batcher;
+  private transient WriteAheadLog wal;
+  private transient SnapshotStore snapshots;
+  private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+  private transient volatile boolean writingSnapshot;
+  private transient volatile SoftReference<DumpView> dumpView = new SoftReference<>(null); // The sorted view of the latest dump, freed under memory pressure
+  private transient ChangeFeed changeFeed = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY); // Appended only by the learner
+  private volatile Configuration configuration; // Written only by the learner, under learnerLock
+  private transient Configuration preparedConfiguration; // The configuration leaderBallot was prepared under, guarded by proposerLock
+  private transient int sharedBallot = -1; // Without a stable leader, the ballot proposals in phase 2 share, guarded by proposerLock
+  private transient Configuration sharedConfiguration; // The configuration sharedBallot was prepared under, guarded by proposerLock
+  private transient int sharedBallotUsers; // Proposals in phase 2 under sharedBallot, guarded by proposerLock
+  private int pipelineWindow = DEFAULT_PIPELINE_WINDOW;
 
   /**
    * Constructor to create a Server instance.
@@ -29,90 +109,1069 @@ public class Server implements ProposerInterface, AcceptorInterface, LearnerInte
    * @param numServers The total number of servers in the system.
    */
   public Server(int serverId, int numServers, boolean enableTimeout) {
+    this(serverId, numServers, enableTimeout, false);
+  }
+
+  /**
+   * Constructor to create a Server instance.
+   * @param serverId The unique ID of this server.
+   * @param numServers The total number of servers in the system.
+   * @param multiPaxos True to run with a stable leader that skips phase 1 for steady-state operations.
+   */
+  public Server(int serverId, int numServers, boolean enableTimeout, boolean multiPaxos) {
+    this(serverId, numServers, enableTimeout, multiPaxos, 0, 1);
+  }
+
+  /**
+   * Constructor to create the replica of one Paxos group, when the key space is split by hash over
+   * several independent groups. Each group has its own log, acceptor state and leader. The first
+   * leader of a group is server {@code groupId % numServers}, so the groups' leaders are spread
+   * over the servers.
+   * @param serverId The unique ID of this server.
+   * @param numServers The total number of servers in the system.
+   * @param multiPaxos True to run with a stable leader that skips phase 1 for steady-state operations.
+   * @param groupId The group this server is a replica of.
+   * @param numGroups The number of groups the key space is split into.
+   */
+  public Server(int serverId, int numServers, boolean enableTimeout, boolean multiPaxos, int groupId, int numGroups) {
     this.numServers = numServers;
     this.serverId = serverId;
     this.enableTimeout = enableTimeout;
+    this.multiPaxos = multiPaxos;
+    this.name = numGroups == 1 ? "Server " + serverId : "Server " + serverId + " group " + groupId;
+    this.threadName = numGroups == 1 ? "server" + serverId : "server" + serverId + "-group" + groupId;
+    this.leaderId = groupId % numServers;
+    this.configuration = Configuration.allOf(numServers);
+    this.detector = new FailureDetector(numServers, serverId, threadName, FailureDetector.DEFAULT_THRESHOLD);
+    this.metrics = new ServerMetrics(serverId, groupId, numServers, () -> kvStore.size(), detector);
+    this.log = AsyncLogger.forSource(name);
+    this.fanOut = new PeerFanOut(numServers, threadName, metrics, detector, PeerFanOut.DEFAULT_CALL_TIMEOUT_MILLIS,
+        pipelineWindow);
+    detector.start(() -> learners);
+    this.leaderContactNanos = System.nanoTime() - lease.getDurationNanos();
+    if (multiPaxos) {
+      startLeaseRenewal();
+    }
+    startCatchUp();
   }
 
   /**
    * Generates a unique proposal ID.
+   * The owning server can be recovered from the ID with {@code proposalId % numServers}.
    * @return A unique proposal ID.
    */
-  private synchronized int generateProposalId() {
-    // generate a unique proposal ID
+  private int generateProposalId() {
+    // generate a unique proposal ID above anything this server has already promised
+    proposalNumber.accumulateAndGet(highestPromisedProposalId.get() / numServers + 1, Math::max);
     int currentProposalNumber = proposalNumber.getAndIncrement();
-    return (serverId * numServers) + currentProposalNumber;
+    return (currentProposalNumber * numServers) + serverId;
+  }
+
+  /**
+   * Set the acceptors for this server.
+   * @param acceptors Array of acceptors.
+   */
+  public void setAcceptors(AcceptorInterface[] acceptors) {
+    this.acceptors = acceptors;
+  }
+
+  /**
+   * Set the learners for this server.
+   * @param learners Array of learners.
+   */
+  public void setLearners(LearnerInterface[] learners) {
+    this.learners = learners;
+  }
+
+  /**
+   * Rebuild acceptor and learner state, including the key-value store, from a write-ahead log,
+   * and keep logging to it from now on. Must be called before the server handles any request.
+   * @param writeAheadLog The log to replay and append to.
+   * @throws IOException If the log cannot be read.
+   */
+  public void recoverFrom(WriteAheadLog writeAheadLog) throws IOException {
+    synchronized (learnerLock) {
+      recoverLocked(writeAheadLog);
+    }
+  }
+
+  private void recoverLocked(WriteAheadLog writeAheadLog) throws IOException {
+    // Start from the newest snapshot and replay only what the log holds above it
+    snapshots = new SnapshotStore(writeAheadLog.getDirectory());
+    snapshotSlot = snapshots.loadLatest(kvStore, loaded -> configuration = loaded);
+    nextApplySlot = snapshotSlot + 1;
+    if (snapshotSlot >= 0) {
+      // The changes behind the snapshot are gone, watchers from before cannot resume before it
+      changeFeed.reset(VersionedValue.versionOf(nextApplySlot, 0) - 1);
+    }
+    writeAheadLog.replay(new WriteAheadLog.Replayer() {
+      @Override
+      public void promise(int proposalId) {
+        highestPromisedProposalId.accumulateAndGet(proposalId, Math::max);
+      }
+
+      @Override
+      public void accept(int slot, int proposalId, Object value) {
+        highestPromisedProposalId.accumulateAndGet(proposalId, Math::max);
+        if (slot > snapshotSlot) {
+          // Accepts of one slot may be logged out of ballot order, the highest ballot is the one that counts
+          acceptedLog.merge(slot, new LogEntry(slot, proposalId, value), Server::higherBallot);
+        }
+      }
+
+      @Override
+      public void decide(int slot, Object value) {
+        if (slot > snapshotSlot) {
+          decidedLog.putIfAbsent(slot, value);
+        }
+      }
+    });
+    applyContiguous(-1);
+    int lastSlot = Math.max(nextApplySlot - 1, acceptedLog.keySet().stream().max(Integer::compare).orElse(-1));
+    nextSlot.set(lastSlot + 1);
+    if (highestPromisedProposalId.get() >= 0) {
+      // Act as if the last leader was just heard from, in case it still holds a lease we no longer remember
+      followLeader(highestPromisedProposalId.get());
+    }
+    this.wal = writeAheadLog;
+    log.info("recovered snapshot through slot " + snapshotSlot + ", " + nextApplySlot + " applied slots, "
+        + acceptedLog.size() + " accepted slots, promised proposal " + highestPromisedProposalId.get());
+  }
+
+  /**
+   * Set how many of the latest writes and deletes are kept for watchers to read. A watcher that
+   * falls further behind misses changes and has to read the store again.
+   * Must be called before the server handles any request.
+   * @param capacity The number of changes retained.
+   */
+  public void setWatchHistory(int capacity) {
+    this.changeFeed = new ChangeFeed(capacity);
+  }
+
+  /**
+   * @return The writes and deletes this server applied most recently.
+   */
+  public ChangeFeed getChangeFeed() {
+    return changeFeed;
+  }
+
+  /**
+   * Seed the simulated acceptor failures, so that the same seed rejects the same accepts.
+   * @param seed The seed of the failure decisions.
+   */
+  public void setFaultSeed(long seed) {
+    this.faultRandom = new Random(seed);
+  }
+
+  /**
+   * Set how many applied slots accumulate before the next snapshot, which bounds both the log
+   * replayed on restart and the log retained on disk and in memory.
+   * @param snapshotInterval The number of applied slots between snapshots.
+   */
+  public void setSnapshotInterval(int snapshotInterval) {
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /**
+   * Set how many log slots the leader may have waiting on an accept quorum at the same time.
+   * @param pipelineWindow The maximum number of in-flight slots.
+   */
+  public void setPipelineWindow(int pipelineWindow) {
+    this.pipelineWindow = pipelineWindow;
+    this.inFlight = new Semaphore(pipelineWindow);
+    fanOut.setMaxInFlight(pipelineWindow);
+  }
+
+  /**
+   * Set the configuration the group starts with. A configuration recovered from the write-ahead
+   * log or a snapshot replaces it. Must be called before the server handles any request.
+   * @param configuration The acceptors and quorum sizes of the group.
+   */
+  public void setConfiguration(Configuration configuration) {
+    synchronized (learnerLock) {
+      this.configuration = configuration;
+    }
+  }
+
+  /**
+   * @return The number of servers, members of the configuration or not.
+   */
+  public int getNumServers() {
+    return numServers;
+  }
+
+  /**
+   * @return The configuration in force after the last applied slot.
+   */
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * Group concurrent client operations into batches that each take a single consensus round.
+   * A batch size of 1 turns batching off.
+   * @param maxBatchSize The number of operations that flushes a batch right away.
+   * @param maxBatchDelayMillis The longest an operation waits for others to join its batch.
+   */
+  public void setBatching(int maxBatchSize, long maxBatchDelayMillis) {
+    if (maxBatchSize <= 1) {
+      this.batcher = null;
+      return;
+    }
+    this.batcher = new OperationBatcher(threadName, maxBatchSize, maxBatchDelayMillis,
+        batch -> multiPaxos ? decideAsLeader(batch) : decideWithBothPhases(generateProposalId(), batch));
+  }
+
+  /**
+   * Set how many times a proposer tries to get an operation chosen while other proposers keep
+   * pre-empting its ballot. Retries wait a random, growing delay; once the budget is spent the
+   * operation fails with CONTENDED.
+   * @param retryBudget The most attempts per operation, the first one included.
+   */
+  public void setRetryBudget(int retryBudget) {
+    this.backoff = new ContentionBackoff(retryBudget, ContentionBackoff.DEFAULT_BASE_DELAY_MILLIS, ContentionBackoff.DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  /**
+   * @return The batching metrics of this server, or null if batching is off.
+   */
+  public String getBatchingStats() {
+    return batcher == null ? null : batcher.statsSummary();
+  }
+
+  /**
+   * @return The server this server takes for the leader of its group, or -1 without a stable leader.
+   */
+  public int getLeaderId() {
+    return multiPaxos ? leaderId : -1;
+  }
+
+  /**
+   * @return The metrics of this server.
+   */
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the proposers for this server, used to forward client operations to the leader.
+   * @param proposers Array of proposers.
+   */
+  public void setProposers(ProposerInterface[] proposers) {
+    this.proposers = proposers;
+  }
+
+  @Override
+  public OperationResult get(String key) throws RemoteException {
+    return proposeOperation(new Operation("GET", key));
+  }
+
+  @Override
+  public OperationResult put(String key, String value) throws RemoteException {
+    return proposeOperation(new Operation("PUT", key, value));
+  }
+
+  @Override
+  public OperationResult delete(String key) throws RemoteException {
+    return proposeOperation(new Operation("DELETE", key, null));
+  }
+
+  @Override
+  public Map<String, OperationResult> multiGet(List<String> keys) throws RemoteException {
+    return proposeMulti("MULTI_GET", keys, null);
+  }
+
+  @Override
+  public Map<String, OperationResult> multiPut(Map<String, String> entries) throws RemoteException {
+    return proposeMulti("MULTI_PUT", new ArrayList<>(entries.keySet()), new ArrayList<>(entries.values()));
+  }
+
+  @Override
+  public Map<String, OperationResult> multiDelete(List<String> keys) throws RemoteException {
+    return proposeMulti("MULTI_DELETE", keys, null);
+  }
+
+  @Override
+  public OperationResult write(WriteBatch batch) throws RemoteException {
+    long[] expectedVersions = new long[batch.expectedVersions.size()];
+    for (int i = 0; i < expectedVersions.length; i++) {
+      expectedVersions[i] = batch.expectedVersions.get(i);
+    }
+    return proposeOperation(new MultiOperation("WRITE_BATCH", new ArrayList<>(batch.operations), expectedVersions));
+  }
+
+  /**
+   * Propose the same operation on many keys as one value, decided in a single consensus round.
+   * @param type The multi-key operation type.
+   * @param keys The keys.
+   * @param values The value for each key, or null.
+   * @return The result for each key.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private Map<String, OperationResult> proposeMulti(String type, List<String> keys, List<String> values) throws RemoteException {
+    Map<String, OperationResult> rejected = rejectDuplicateKeys(type, keys);
+    if (rejected != null) {
+      return rejected;
+    }
+    String partType = type.substring("MULTI_".length());
+    List<Operation> parts = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      parts.add(new Operation(partType, keys.get(i), values == null ? null : values.get(i)));
+    }
+    OperationResult result = proposeOperation(new MultiOperation(type, parts, null));
+    Map<String, OperationResult> results = new LinkedHashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      // A round that failed fails every key alike
+      results.put(keys.get(i), result.getResults() != null ? result.getResults().get(i) : result);
+    }
+    return results;
+  }
+
+  /**
+   * Refuse a multi-key operation that names a key twice: its results are keyed by key, so one of
+   * the two would be lost.
+   * @param type The multi-key operation type.
+   * @param keys The keys.
+   * @return A FAILED result for each key, or null if no key is repeated.
+   */
+  static Map<String, OperationResult> rejectDuplicateKeys(String type, List<String> keys) {
+    Set<String> seen = new HashSet<>();
+    for (String key : keys) {
+      if (!seen.add(key)) {
+        Map<String, OperationResult> results = new LinkedHashMap<>();
+        for (String each : keys) {
+          results.put(each, OperationResult.failed(OperationResult.Status.FAILED, "Duplicate key " + key + " in " + type));
+        }
+        return results;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public StorePage dump(String afterKey, int maxEntries) throws RemoteException {
+    DumpView view = dumpView.get();
+    if (afterKey == null || view == null || view.isStale()) {
+      // Sort a snapshot once for the whole dump, so every later page is a seek from its cursor
+      StorageEngine.Snapshot state;
+      synchronized (learnerLock) {
+        state = kvStore.snapshot();
+      }
+      try {
+        view = new DumpView(state);
+      } catch (IOException e) {
+        throw new RemoteException("Could not read the store", e);
+      }
+      dumpView = new SoftReference<>(view);
+    }
+    Map<String, String> entries = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, String>> iterator =
+        (afterKey == null ? view.entries : view.entries.tailMap(afterKey, false)).entrySet().iterator();
+    String lastKey = null;
+    while (entries.size() < maxEntries && iterator.hasNext()) {
+      Map.Entry<String, String> entry = iterator.next();
+      entries.put(entry.getKey(), entry.getValue());
+      lastKey = entry.getKey();
+    }
+    return new StorePage(entries, iterator.hasNext() && lastKey != null ? lastKey : null);
+  }
+
+  @Override
+  public WatchBatch watch(String prefix, long[] cursor, int maxChanges, long timeoutMillis) throws RemoteException {
+    return changeFeed.read(prefix == null ? "" : prefix, cursor == null ? WatchBatch.NOW : cursor[0],
+        Math.max(1, maxChanges), Math.max(0L, timeoutMillis));
+  }
+
+  /**
+   * Propose an operation to be applied.
+   * @param operation The operation to be proposed.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private OperationResult proposeOperation(Object operation) throws RemoteException {
+    if (multiPaxos) {
+      if (leaderId != serverId) {
+        return forwardToLeader(operation);
+      }
+      // A CONTENDED operation may still be chosen, so it is not handed to the new leader: that could apply it twice
+      return submit(operation);
+    }
+    if (batcher != null) {
+      return batcher.submit(operation);
+    }
+    int proposalId = generateProposalId();
+    return propose(proposalId, operation);
+  }
+
+  /**
+   * Hand a client operation to the current leader. If the leader is suspected to be down, cannot
+   * be reached, becomes suspected while the forward waits, or does not answer within the time a
+   * leader takes to apply an operation, this server takes over leadership and proposes the
+   * operation itself.
+   * @param operation The operation to be proposed.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private OperationResult forwardToLeader(Object operation) throws RemoteException {
+    int leader = leaderId;
+    ProposerInterface leaderProposer = proposers == null || detector.isSuspected(leader) ? null : proposers[leader];
+    if (leaderProposer != null) {
+      CompletableFuture<OperationResult> forwarded = fanOut.request(leader, leaderProposer, proposer -> proposer.submit(operation));
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FORWARD_TIMEOUT);
+      try {
+        while (true) {
+          try {
+            return forwarded.get(FORWARD_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            // Wait in short steps, so a leader that pauses is given up on as soon as it is suspected
+            if (detector.isSuspected(leader) || System.nanoTime() - deadline >= 0) {
+              log.warn("leader " + leader + " did not answer, taking over");
+              break;
+            }
+          }
+        }
+      } catch (ExecutionException e) {
+        log.warn("could not reach leader " + leader + ", taking over");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RemoteException(name + " was interrupted while forwarding to leader " + leader, e);
+      }
+      forwarded.cancel(false);
+    }
+    return submit(operation);
+  }
+
+  /**
+   * Change the acceptors and quorum sizes of the group through the log. The new configuration
+   * governs every slot after the one it is chosen in. Only a group with a stable leader can
+   * reconfigure: the leader drains its pipeline before the change and nobody else proposes, while
+   * without a leader other proposers keep choosing later slots under the configuration they know,
+   * with quorums that need not intersect those of the new one.
+   * @param next The new configuration.
+   * @return OK once the configuration is applied on this server, or why it was not.
+   * @throws RemoteException If a remote error occurs.
+   */
+  public OperationResult reconfigure(Configuration next) throws RemoteException {
+    OperationResult refused = refuseReconfiguration(next);
+    if (refused != null) {
+      return refused;
+    }
+    // The leader has to drain its pipeline first, so reconfiguration goes through submit
+    return proposeOperation(next);
+  }
+
+  /**
+   * @param next A proposed configuration.
+   * @return Why this group cannot switch to it, or null if it can.
+   */
+  private OperationResult refuseReconfiguration(Configuration next) {
+    if (!multiPaxos) {
+      return OperationResult.failed(OperationResult.Status.FAILED, name
+          + " runs without a stable leader, which cannot fence the other proposers during a reconfiguration: " + next);
+    }
+    if (!next.fits(numServers)) {
+      return OperationResult.failed(OperationResult.Status.FAILED, name + " has only " + numServers + " servers: " + next);
+    }
+    return null;
+  }
+
+  /**
+   * Choose a configuration with nothing else in flight, so that no slot after it is chosen under
+   * the quorums of the configuration it replaces. The next slot prepares again under the new one.
+   * @param next The new configuration.
+   * @return The result of applying it.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private OperationResult reconfigureAsLeader(Configuration next) throws RemoteException {
+    Semaphore window = inFlight;
+    int permits = pipelineWindow;
+    window.acquireUninterruptibly(permits);
+    try {
+      AtomicInteger preemptedAttempts = new AtomicInteger();
+      PendingResult pending = chooseInNextSlot(next, preemptedAttempts);
+      if (pending == null) {
+        return preemptedAttempts.get() >= backoff.getRetryBudget() ? contended(next, preemptedAttempts.get()) : toResult(null, next);
+      }
+      return toResult(awaitResult(pending), next);
+    } finally {
+      window.release(permits);
+    }
+  }
+
+  @Override
+  public OperationResult submit(Object proposalValue) throws RemoteException {
+    if (proposalValue instanceof Configuration) {
+      OperationResult refused = refuseReconfiguration((Configuration) proposalValue);
+      return refused != null ? refused : reconfigureAsLeader((Configuration) proposalValue);
+    }
+    if (multiPaxos && isRead(proposalValue)) {
+      OperationResult value = readUnderLease(proposalValue);
+      if (value != null) {
+        return value;
+      }
+    }
+    if (batcher != null && (proposalValue instanceof Operation || proposalValue instanceof MultiOperation)) {
+      return batcher.submit(proposalValue);
+    }
+    return toResult(decideAsLeader(proposalValue), proposalValue);
+  }
+
+  /**
+   * Turn what deciding a single operation produced into its result.
+   * @param decided The result of applying the operation, a failed result, or null if it was not chosen.
+   * @param value The operation.
+   * @return The result.
+   */
+  private OperationResult toResult(Object decided, Object value) {
+    if (decided == null) {
+      return OperationResult.failed(OperationResult.Status.NO_QUORUM, name + " could not reach a quorum, the operation may or may not take effect: " + value);
+    }
+    return (OperationResult) decided;
+  }
+
+  /**
+   * @param value A value whose proposer spent its retry budget.
+   * @param attempts The attempts made.
+   * @return The CONTENDED result for the value.
+   */
+  private OperationResult contended(Object value, int attempts) {
+    metrics.retryBudgetsExhausted.increment();
+    return OperationResult.failed(OperationResult.Status.CONTENDED, name + " was pre-empted by other proposers in all "
+        + attempts + " attempts, the operation may or may not take effect: " + value);
+  }
+
+  /**
+   * Get a value chosen and applied under this server's leader ballot.
+   * @param value The value to propose.
+   * @return The result of applying the value, a CONTENDED result, or null if it could not be chosen.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private Object decideAsLeader(Object value) throws RemoteException {
+    metrics.inFlightProposals.incrementAndGet();
+    try {
+      return decideAsLeaderInSlots(value);
+    } finally {
+      metrics.inFlightProposals.decrementAndGet();
+    }
+  }
+
+  private Object decideAsLeaderInSlots(Object value) throws RemoteException {
+    // If another proposer's value ends up in our slot, the operation gets one more slot
+    for (int round = 0; round < 2; round++) {
+      Semaphore window = inFlight;
+      window.acquireUninterruptibly();
+      PendingResult pending;
+      AtomicInteger preemptedAttempts = new AtomicInteger();
+      try {
+        pending = chooseInNextSlot(value, preemptedAttempts);
+      } finally {
+        window.release();
+      }
+      if (pending == null) {
+        return preemptedAttempts.get() >= backoff.getRetryBudget() ? contended(value, preemptedAttempts.get()) : null;
+      }
+      Object result = awaitResult(pending);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get a value chosen in a fresh slot under the leader's ballot. A pre-empted leader backs off,
+   * prepares again and retries the same slot, so a failed attempt does not leave a hole in the log.
+   * Attempts that fail without a rejection, because too few acceptors answered, are not retried.
+   * Callers hold a permit of the pipeline window while this runs.
+   * @param value The value to propose.
+   * @param preemptedAttempts Counts the attempts that another proposer's ballot pre-empted.
+   * @return The pending result for the slot, or null if the slot could not be decided.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private PendingResult chooseInNextSlot(Object value, AtomicInteger preemptedAttempts) throws RemoteException {
+    PendingResult pending = null;
+    for (int attempt = 1; ; attempt++) {
+      AtomicBoolean preempted = new AtomicBoolean();
+      long attemptStart = System.nanoTime();
+      int ballot = ensurePrepared(preempted);
+      if (ballot < 0) {
+        if (preempted.get() && retryAfterPreemption(attempt, preemptedAttempts)) {
+          continue;
+        }
+        break;
+      }
+      if (pending == null) {
+        pending = expectResult(nextSlot.getAndIncrement(), value);
+      }
+      if (isDecided(pending.slot)) {
+        // Recovery during phase 1 already chose a value for this slot
+        return pending;
+      }
+      long roundStart = System.nanoTime();
+      if (runPhaseTwo(ballot, pending.slot, value, preempted)) {
+        backoff.recordAttempt(System.nanoTime() - attemptStart);
+        lease.extend(ballot, roundStart);
+        learnEverywhere(ballot, pending.slot, value);
+        return pending;
+      }
+      stepDown(ballot);
+      backoff.recordAttempt(System.nanoTime() - attemptStart);
+      if (!preempted.get() || !retryAfterPreemption(attempt, preemptedAttempts)) {
+        break;
+      }
+    }
+    if (chosenAnyway(pending)) {
+      return pending;
+    }
+    if (pending != null) {
+      pendingResults.remove(pending.slot);
+    }
+    return null;
+  }
+
+  /**
+   * Count a pre-empted attempt and wait before the next one, if the retry budget allows one.
+   * @param attempt The number of attempts made so far.
+   * @param preemptedAttempts Counts the pre-empted attempts of the operation.
+   * @return True if the caller should try again.
+   */
+  private boolean retryAfterPreemption(int attempt, AtomicInteger preemptedAttempts) {
+    metrics.proposalsPreempted.increment();
+    preemptedAttempts.incrementAndGet();
+    return backoff.canRetry(attempt) && backoff.pause(attempt);
+  }
+
+  /**
+   * Return the leader's prepared ballot, running phase 1 first if this server does not hold one.
+   * @param preempted Set if an acceptor rejected the new ballot.
+   * @return The prepared ballot, or -1 if no majority promised it.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private int ensurePrepared(AtomicBoolean preempted) throws RemoteException {
+    proposerLock.lock();
+    try {
+      if (leaderBallot >= 0 && preparedConfiguration != configuration) {
+        // Promises from the acceptors of an older configuration do not cover the slots of this one
+        leaderBallot = -1;
+        lease.revoke();
+      }
+      if (leaderBallot < 0) {
+        int ballot = generateProposalId();
+        long roundStart = System.nanoTime();
+        Configuration config = configuration;
+        if (runPhaseOne(ballot, preempted)) {
+          leaderBallot = ballot;
+          preparedConfiguration = config;
+          lease.extend(ballot, roundStart);
+          log.info("is leader with ballot " + ballot);
+        }
+      }
+      return leaderBallot;
+    } finally {
+      proposerLock.unlock();
+    }
+  }
+
+  /**
+   * Forget a leader ballot that failed to reach a quorum, so the next operation prepares again.
+   * @param ballot The ballot that failed.
+   */
+  private void stepDown(int ballot) {
+    proposerLock.lock();
+    try {
+      if (leaderBallot == ballot) {
+        leaderBallot = -1;
+        lease.revoke();
+      }
+    } finally {
+      proposerLock.unlock();
+    }
+  }
+
+  /**
+   * @param value A proposal value.
+   * @return True if the value is a GET or a multi-key GET, which leave the store unchanged.
+   */
+  private static boolean isRead(Object value) {
+    return value instanceof Operation && ((Operation) value).type.equals("GET")
+        || value instanceof MultiOperation && ((MultiOperation) value).type.equals("MULTI_GET");
+  }
+
+  /**
+   * Serve a GET or a multi-key GET from local state if this server holds the leader lease.
+   * Writes are acknowledged only after the leader applied them, so the local store already
+   * reflects every completed write, and no other leader can choose a value while the lease is held.
+   * @param operation The read operation.
+   * @return The read result, or null if the read has to go through consensus.
+   */
+  private OperationResult readUnderLease(Object operation) {
+    if (!lease.isHeld(leaderBallot)) {
+      return null;
+    }
+    return applyOperation(operation, nextApplySlot - 1, 0);
+  }
+
+  /**
+   * Periodically re-confirm the leader ballot with a majority so the lease stays valid while idle.
+   */
+  private void startLeaseRenewal() {
+    long periodMillis = LeaderLease.DEFAULT_DURATION_MILLIS / 4;
+    Thread renewal = new Thread(() -> {
+      while (true) {
+        try {
+          Thread.sleep(periodMillis);
+          renewLease();
+        } catch (InterruptedException e) {
+          return;
+        } catch (RemoteException e) {
+          // The next renewal tries again
+        }
+      }
+    }, threadName + "-lease");
+    renewal.setDaemon(true);
+    renewal.start();
+  }
+
+  /**
+   * Extend the lease by repeating the prepare of the current ballot, which needs no log slot.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private void renewLease() throws RemoteException {
+    int ballot = leaderBallot;
+    if (ballot < 0 || leaderId != serverId || acceptors == null) {
+      return;
+    }
+    // The renewal has to intersect every phase 1 quorum, which a phase 2 quorum does
+    Configuration config = configuration;
+    int quorum = config.phaseTwoQuorum();
+    long roundStart = System.nanoTime();
+    int promiseCount = config.contains(serverId) && prepare(ballot) == ballot ? 1 : 0;
+    promiseCount += fanOut.awaitQuorum(config.select(acceptors), acceptor -> acceptor.prepare(ballot) == ballot, quorum - promiseCount);
+    if (promiseCount >= quorum) {
+      lease.extend(ballot, roundStart);
+    }
+  }
+
+  /**
+   * Record that this acceptor promised a ballot, which makes its owner the leader.
+   * Must be called while holding the ballot lock, for the highest ballot this acceptor has seen.
+   * @param proposalId The ballot.
+   */
+  private void followLeader(int proposalId) {
+    followLeader(proposalId, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Record that this acceptor promised or accepted a ballot, which makes its owner the leader.
+   * Must be called while holding the ballot lock, for the highest ballot this acceptor has seen.
+   * @param proposalId The ballot.
+   * @param slot The slot accepted, or Integer.MAX_VALUE for a promise, after which a value is still to come.
+   */
+  private void followLeader(int proposalId, int slot) {
+    int owner = proposalId % numServers;
+    if (owner != serverId) {
+      lease.revoke();
+    }
+    leaderId = owner;
+    leaderSlot = slot;
+    leaderContactNanos = System.nanoTime();
+  }
+
+  /**
+   * Tell since when another proposer may be in the middle of choosing a value: it was the last
+   * one this acceptor heard from, and the slot it last sent an accept for is not decided yet.
+   * @return When this acceptor last heard from it, or Long.MIN_VALUE if no other proposer is busy.
+   */
+  private long rivalActiveSince() {
+    if (leaderId == serverId || isDecided(leaderSlot)) {
+      return Long.MIN_VALUE;
+    }
+    return leaderContactNanos;
+  }
+
+  /**
+   * Run phase 1 for every slot from the first one this server has not applied yet. Values that
+   * acceptors already accepted in those slots are proposed again under the new ballot and holes
+   * are filled with no-ops, so learners never stall behind a slot nobody will decide.
+   * @param ballot The proposal ID to prepare.
+   * @param preempted Set if an acceptor rejected the ballot, which means a higher one is around.
+   * @return True if a phase 1 quorum of the current configuration promised the ballot and every
+   *     recovered slot was chosen again.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private boolean runPhaseOne(int ballot, AtomicBoolean preempted) throws RemoteException {
+    // An acceptor that compacted slots we have not applied cannot report them, so catch up first.
+    // A configuration among the recovered slots governs the slots after it, so start over under it.
+    for (int attempt = 0; attempt < 4; attempt++) {
+      Configuration config = configuration;
+      int quorum = config.phaseOneQuorum();
+      int fromSlot = nextApplySlot;
+      List<LogEntry> reported = Collections.synchronizedList(new ArrayList<>());
+      AtomicBoolean compacted = new AtomicBoolean(false);
+      long roundStart = System.nanoTime();
+      int promiseCount = 0;
+      if (!config.contains(serverId)) {
+        // Not an acceptor of this configuration, only the members' promises count
+      } else if (prepare(ballot) == ballot) {
+        promiseCount++;
+        reported.addAll(acceptedEntries(fromSlot));
+      } else {
+        preempted.set(true);
+      }
+      promiseCount += fanOut.awaitQuorum(config.select(acceptors), acceptor -> {
+        if (acceptor.prepare(ballot) != ballot) {
+          preempted.set(true);
+          return false;
+        }
+        List<LogEntry> entries = acceptor.acceptedEntries(fromSlot);
+        if (entries == null) {
+          compacted.set(true);
+        } else {
+          reported.addAll(entries);
+        }
+        return true;
+      }, quorum - promiseCount);
+      metrics.phaseOneRound.record(System.nanoTime() - roundStart);
+      if (promiseCount < quorum) {
+        return false;
+      }
+      if (compacted.get()) {
+        catchUpFromPeers();
+        continue;
+      }
+
+      // Keep the value with the highest proposal ID reported for each slot
+      Map<Integer, LogEntry> recovered = new HashMap<>();
+      synchronized (reported) {
+        for (LogEntry entry : reported) {
+          recovered.merge(entry.slot, entry, (a, b) -> a.proposalId >= b.proposalId ? a : b);
+        }
+      }
+      // Slots this server handed out earlier but never got chosen count as holes as well
+      int lastSlot = recovered.keySet().stream().max(Integer::compare).orElse(fromSlot - 1);
+      lastSlot = Math.max(lastSlot, nextSlot.get() - 1);
+      for (int slot = fromSlot; slot <= lastSlot && configuration == config; slot++) {
+        if (isDecided(slot)) {
+          continue;
+        }
+        LogEntry entry = recovered.get(slot);
+        Object value = entry != null ? entry.value : Operation.noop();
+        if (!runPhaseTwo(ballot, slot, value, preempted)) {
+          return false;
+        }
+        learnEverywhere(ballot, slot, value);
+      }
+      if (configuration != config) {
+        continue;
+      }
+      nextSlot.accumulateAndGet(lastSlot + 1, Math::max);
+      return true;
+    }
+    return false;
+  }
+
+
+  /**
+   * Send accept requests for one slot under a prepared ballot.
+   * @param preempted Set if an acceptor rejected the ballot.
+   * @return True if a phase 2 quorum of the current configuration accepted the value.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private boolean runPhaseTwo(int ballot, int slot, Object value, AtomicBoolean preempted) throws RemoteException {
+    Configuration config = configuration;
+    int quorum = config.phaseTwoQuorum();
+    long roundStart = System.nanoTime();
+    int acceptCount = 0;
+    if (!config.contains(serverId)) {
+      // Not an acceptor of this configuration, only the members' accepts count
+    } else if (accept(ballot, slot, value)) {
+      acceptCount++;
+    } else {
+      preempted.set(true);
+    }
+    acceptCount += fanOut.awaitQuorum(config.select(acceptors), acceptor -> {
+      if (acceptor.accept(ballot, slot, value)) {
+        return true;
+      }
+      preempted.set(true);
+      return false;
+    }, quorum - acceptCount);
+    metrics.phaseTwoRounds.increment();
+    metrics.phaseTwoRound.record(System.nanoTime() - roundStart);
+    return acceptCount >= quorum;
+  }
+
+  /**
+   * Register interest in the result of applying a slot. Must be called before the slot is learned.
+   * @param slot The log slot.
+   * @param value The value this server expects to be chosen for the slot.
+   * @return The pending result.
+   */
+  private PendingResult expectResult(int slot, Object value) {
+    PendingResult pending = new PendingResult(slot, value);
+    pendingResults.put(slot, pending);
+    return pending;
+  }
+
+  /**
+   * Wait until this server has applied a slot in log order.
+   * @param pending The pending result registered for the slot.
+   * @return The result of applying the expected value, null if a different value was chosen,
+   *     or a TIMED_OUT result if the slot was not applied in time.
+   */
+  private Object awaitResult(PendingResult pending) {
+    try {
+      return pending.result.get(APPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // Fall through, an earlier slot has not been decided yet
+    }
+    pendingResults.remove(pending.slot);
+    return OperationResult.failed(OperationResult.Status.TIMED_OUT, name + " chose slot " + pending.slot + " but has not applied it yet: " + pending.value);
   }
 
   /**
-   * Set the acceptors for this server.
-   * @param acceptors Array of acceptors.
+   * Send a chosen slot to every learner, including this server.
+   * @throws RemoteException If a remote error occurs.
    */
-  public void setAcceptors(AcceptorInterface[] acceptors) {
-    this.acceptors = acceptors;
+  private void learnEverywhere(int ballot, int slot, Object value) throws RemoteException {
+    fanOut.broadcast(learners, learner -> learner.learn(ballot, slot, value) != null);
+    learn(ballot, slot, value);
   }
 
   /**
-   * Set the learners for this server.
-   * @param learners Array of learners.
+   * Check whether this server already knows the value chosen for a slot.
+   * @param slot The log slot.
+   * @return True if the slot has been learned or applied.
    */
-  public void setLearners(LearnerInterface[] learners) {
-    this.learners = learners;
+  private boolean isDecided(int slot) {
+    return slot < nextApplySlot || decidedLog.containsKey(slot);
   }
 
   @Override
-  public synchronized String get(String key) throws RemoteException {
-    return proposeOperation(new Operation("GET", key));
+  public int prepare(int proposalId) throws RemoteException {
+    // Implement Paxos prepare logic here
+    // A promise covers every slot of the log, which is what lets a leader skip phase 1 afterwards
+    long start = System.nanoTime();
+    long walPosition = 0L;
+    try {
+      ballotLock.writeLock().lock();
+      try {
+        // While the current leader's lease may still be held, other proposers are refused
+        boolean leaseActive = System.nanoTime() - leaderContactNanos < lease.getDurationNanos();
+        if (multiPaxos && leaseActive && proposalId % numServers != leaderId) {
+          metrics.preparesRejected.increment();
+          return -1;
+        }
+        int promised = highestPromisedProposalId.get();
+        if (proposalId < promised) {
+          metrics.preparesRejected.increment();
+          return -1;
+        }
+        if (proposalId > promised && wal != null) {
+          walPosition = walAppend(() -> wal.logPromise(proposalId));
+        }
+        highestPromisedProposalId.set(proposalId);
+        followLeader(proposalId);
+      } finally {
+        ballotLock.writeLock().unlock();
+      }
+      // The promise only counts once it survives a restart
+      walSync(walPosition);
+      return proposalId;
+    } finally {
+      metrics.prepare.record(System.nanoTime() - start);
+    }
   }
 
   @Override
-  public synchronized String put(String key, String value) throws RemoteException {
-    return proposeOperation(new Operation("PUT", key, value));
+  public List<LogEntry> acceptedEntries(int fromSlot) throws RemoteException {
+    // No lock: once a ballot is promised, no accept of a lower one can still add an entry
+    if (fromSlot <= snapshotSlot) {
+      // Those slots were compacted into a snapshot, the caller has to catch up first
+      return null;
+    }
+    List<LogEntry> entries = new ArrayList<>();
+    for (LogEntry entry : acceptedLog.values()) {
+      if (entry.slot >= fromSlot) {
+        entries.add(entry);
+      }
+    }
+    return entries;
   }
 
   @Override
-  public synchronized String delete(String key) throws RemoteException {
-    return proposeOperation(new Operation("DELETE", key, null));
+  public boolean accept(int proposalId, int slot, Object proposalValue) throws RemoteException {
+    // Simulate acceptor failure randomly
+    if (shouldSimulateAcceptorFailure()) {
+      log.debug("simulating acceptor failure");
+      metrics.acceptsRejected.increment();
+      return false;
+    }
+
+    // Actual Paxos logic
+    long start = System.nanoTime();
+    long walPosition = 0L;
+    try {
+      ballotLock.readLock().lock();
+      try {
+        if (proposalId < highestPromisedProposalId.get()) {
+          metrics.acceptsRejected.increment();
+          return false;
+        }
+        if (wal != null) {
+          walPosition = walAppend(() -> wal.logAccept(slot, proposalId, proposalValue));
+        }
+        if (highestPromisedProposalId.accumulateAndGet(proposalId, Math::max) == proposalId) {
+          followLeader(proposalId, slot);
+        }
+        // Accepts of different ballots may race on a slot, the higher one wins
+        acceptedLog.merge(slot, new LogEntry(slot, proposalId, proposalValue), Server::higherBallot);
+      } finally {
+        ballotLock.readLock().unlock();
+      }
+      // Sync outside the lock so concurrent accepts can share one fsync
+      walSync(walPosition);
+      return true;
+    } finally {
+      metrics.accept.record(System.nanoTime() - start);
+    }
   }
 
   /**
-   * Propose an operation to be applied.
-   * @param operation The operation to be proposed.
-   * @throws RemoteException If a remote error occurs.
+   * A write to the write-ahead log.
    */
-  private synchronized String proposeOperation(Operation operation) throws RemoteException {
-    int proposalId = generateProposalId();
-    return propose(proposalId, operation);
+  @FunctionalInterface
+  private interface WalWrite {
+    long write() throws IOException;
   }
 
-  @Override
-  public synchronized int prepare(int proposalId) throws RemoteException {
-    // Implement Paxos prepare logic here
-    if (proposalId >= this.highestPromisedProposalId) {
-      this.highestPromisedProposalId = proposalId;
-      this.highestAcceptedProposalId = proposalId;
-      return this.highestAcceptedProposalId;
-    } else {
-      return -1;
+  /**
+   * Append a record to the write-ahead log.
+   * @param write The append to run.
+   * @return The position to sync before answering.
+   * @throws RemoteException If the record cannot be written.
+   */
+  private long walAppend(WalWrite write) throws RemoteException {
+    try {
+      return write.write();
+    } catch (IOException e) {
+      throw new RemoteException(name + " could not write its write-ahead log", e);
     }
   }
 
-  @Override
-  public synchronized boolean accept(int proposalId, Object proposalValue) throws RemoteException {
-    // Simulate acceptor failure randomly
-    if (shouldSimulateAcceptorFailure()) {
-      System.out.println("Simulating acceptor failure...");
-      return false;
+  /**
+   * Wait until a write-ahead log record is on disk.
+   * @param position The position returned when appending, 0 if nothing was appended.
+   * @throws RemoteException If the fsync fails.
+   */
+  private void walSync(long position) throws RemoteException {
+    if (wal == null || position == 0L) {
+      return;
     }
-
-    // Actual Paxos logic
-    if (proposalId >= highestPromisedProposalId) {
-      highestPromisedProposalId = proposalId;
-      highestAcceptedProposalId = proposalId;
-      acceptedProposalValue = (Operation) proposalValue;
-      return true;
-    } else {
-      return false;
+    try {
+      wal.sync(position);
+    } catch (IOException e) {
+      throw new RemoteException(name + " could not sync its write-ahead log", e);
     }
   }
 
@@ -126,145 +1185,660 @@ public class Server implements ProposerInterface, AcceptorInterface, LearnerInte
       return false;
     }
     // Simulate acceptor failure with 10% probability
-    return new Random().nextDouble() < 0.1;
+    return faultRandom.nextDouble() < 0.1;
+  }
+
+  @Override
+  public OperationResult propose(int proposalId, Object proposalValue) throws RemoteException {
+    // Implement Paxos propose logic here
+    return toResult(decideWithBothPhases(proposalId, proposalValue), proposalValue);
   }
 
   /**
-   * Simulate an acceptor failure and restart after a delay.
+   * Get a value chosen and applied by running both Paxos phases for it. Each attempt first waits
+   * for a rival proposer that is midway through its own. Phase 1 and the slot are taken under the
+   * proposer lock, and phase 2 runs outside it, so the proposals of one server overlap. A proposal
+   * that finds others of this server in phase 2 under a ballot still promised joins that ballot
+   * instead of preparing a higher one, which would pre-empt them: phase 1 of a ballot covers every
+   * slot from the first unapplied one, so fresh slots need no phase 1 of their own. An attempt
+   * that an acceptor rejected is retried with a higher ballot after a random backoff, within the
+   * retry budget. The retry's phase 1 decides the slot of the attempt before it, so the value is
+   * only proposed in a new slot once it is known not to have been chosen in the old one.
+   * @param proposalId The proposal ID to use for both phases of the first attempt.
+   * @param value The value to propose.
+   * @return The result of applying the value, a CONTENDED result, or null if no quorum answered;
+   *     after either of those the value may still be chosen.
+   * @throws RemoteException If a remote error occurs.
    */
-  private void simulateAcceptorFailure() {
-    if (!enableTimeout) {
-      return; // Do nothing if timeout mechanism is disabled
-    }
-    System.out.println("Acceptor thread interrupted. Simulating failure...");
+  private Object decideWithBothPhases(int proposalId, Object value) throws RemoteException {
+    PendingResult pending = null;
+    metrics.inFlightProposals.incrementAndGet();
     try {
-      Thread.currentThread().interrupt();
-      // Sleep for a random duration (between 2 to 7 seconds)
-      Thread.sleep(new Random().nextInt(5000) + 2000);
-    } catch (InterruptedException e) {
-      // Handle interruption (cleanup, log, etc.)
-      System.out.println("Acceptor thread interrupted during simulation. Cleaning up...");
-      Thread.currentThread().interrupt();
-      System.out.println("Restarting acceptor thread...");
-      initializeAndStartAcceptorThread();
+      int ballot = proposalId;
+      for (int attempt = 1; ; attempt++) {
+        AtomicBoolean preempted = new AtomicBoolean();
+        boolean chosen = false;
+        if (!backoff.awaitRival(this::rivalActiveSince)) {
+          break;
+        }
+        boolean inPhaseTwo = false;
+        proposerLock.lock();
+        long attemptStart = System.nanoTime();
+        try {
+          // A retry has to run phase 1 itself, to learn the fate of the slot it tried before
+          boolean joined = pending == null && sharedBallotUsers > 0 && sharedConfiguration == configuration
+              && highestPromisedProposalId.get() <= sharedBallot;
+          if (joined) {
+            ballot = sharedBallot;
+          }
+          if (joined || runPhaseOne(ballot, preempted)) {
+            if (!joined) {
+              sharedBallot = ballot;
+              sharedConfiguration = configuration;
+            }
+            if (pending != null && !decidedAsExpected(pending)) {
+              pendingResults.remove(pending.slot);
+              pending = null;
+            }
+            if (pending != null) {
+              chosen = true;
+            } else {
+              pending = expectResult(nextSlot.getAndIncrement(), value);
+              inPhaseTwo = true;
+              sharedBallotUsers++;
+            }
+          }
+        } finally {
+          proposerLock.unlock();
+        }
+        if (inPhaseTwo) {
+          try {
+            chosen = runPhaseTwo(ballot, pending.slot, value, preempted);
+            if (chosen) {
+              learnEverywhere(ballot, pending.slot, value);
+            }
+          } finally {
+            proposerLock.lock();
+            try {
+              sharedBallotUsers--;
+            } finally {
+              proposerLock.unlock();
+            }
+          }
+        }
+        backoff.recordAttempt(System.nanoTime() - attemptStart);
+        if (chosen) {
+          return awaitResult(pending);
+        }
+        if (!preempted.get()) {
+          break;
+        }
+        metrics.proposalsPreempted.increment();
+        if (!backoff.canRetry(attempt)) {
+          if (chosenAnyway(pending)) {
+            return awaitResult(pending);
+          }
+          if (pending != null) {
+            pendingResults.remove(pending.slot);
+          }
+          return contended(value, attempt);
+        }
+        if (!backoff.pause(attempt)) {
+          break;
+        }
+        ballot = generateProposalId();
+      }
+      if (chosenAnyway(pending)) {
+        return awaitResult(pending);
+      }
+      if (pending != null) {
+        pendingResults.remove(pending.slot);
+      }
+      return null;
+    } finally {
+      metrics.inFlightProposals.decrementAndGet();
     }
   }
 
-  private void initializeAndStartAcceptorThread() {
-    Thread acceptorThread = new Thread(() -> {
-      try {
-        while (true) {
-          // Simulate acceptor failure with random timeouts
-          Thread.sleep(new Random().nextInt((int) THREAD_TIMEOUT));
-          System.out.println("Acceptor thread failed on server " + this.serverId);
-          // Simulate restarting acceptor thread
-          simulateAcceptorFailure();
-        }
-      } catch (InterruptedException e) {
-        // Handle interruption (cleanup, log, etc.)
-        System.out.println("Acceptor thread interrupted. Cleaning up...");
-      }
-    });
-    acceptorThread.start();
+  /**
+   * Check whether a value was chosen in its slot after all, although its proposer is giving up on
+   * it. Accepts that reached some acceptors let the proposer that pre-empted it recover the value
+   * in phase 1 and choose it. A slot that is not decided yet may still go either way.
+   * @param pending The pending result of the slot the value was sent for, or null if it never was.
+   * @return True if the slot is known to be decided for the value.
+   */
+  private boolean chosenAnyway(PendingResult pending) {
+    return pending != null && isDecided(pending.slot) && decidedAsExpected(pending);
   }
 
+  /**
+   * @param pending The pending result of a slot that is known to be decided.
+   * @return True if the slot was decided for the value the caller expects.
+   */
+  private boolean decidedAsExpected(PendingResult pending) {
+    if (pending.result.isDone()) {
+      // Applied already: the result is null when another value was chosen
+      return pending.result.getNow(null) != null;
+    }
+    return pending.value.equals(decidedLog.get(pending.slot));
+  }
 
   @Override
-  public synchronized String propose(int proposalId, Object proposalValue) throws RemoteException {
-    // Implement Paxos propose logic here
-    int prepareCount = 0;
-    for (int i = 0; i < numServers; i++) {
-      if (acceptors[i] != null) {
-        int responseId = acceptors[i].prepare(proposalId);
-        if (responseId == proposalId) {
-          prepareCount++;
+  public String learn(int proposalId, int slot, Object acceptedValue) throws RemoteException {
+    // Implement Paxos learn logic here
+    // A chosen value never changes, so the first value learned for a slot is kept
+    long start = System.nanoTime();
+    String result;
+    synchronized (learnerLock) {
+      if (slot >= nextApplySlot && decidedLog.putIfAbsent(slot, acceptedValue) == null && wal != null) {
+        // Decisions can be learned again from the acceptors, so they ride along with the next fsync
+        walAppend(() -> wal.logDecide(slot, acceptedValue));
+      }
+      result = applyContiguous(slot);
+    }
+    metrics.learn.record(System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * @return Whichever of two accepted entries for the same slot has the higher ballot.
+   */
+  private static LogEntry higherBallot(LogEntry current, LogEntry next) {
+    return next.proposalId >= current.proposalId ? next : current;
+  }
+
+  /**
+   * Apply every learned slot that is now contiguous with the applied prefix of the log.
+   * Must be called while holding the learner lock.
+   * @param slot A slot whose result the caller is interested in.
+   * @return The result of applying that slot, or an empty string if it was not applied by this call.
+   */
+  private String applyContiguous(int slot) {
+    String result = "";
+    Object value;
+    while ((value = decidedLog.remove(nextApplySlot)) != null) {
+      Object applied = applyValue(value, nextApplySlot);
+      PendingResult waiting = pendingResults.remove(nextApplySlot);
+      if (waiting != null) {
+        boolean ours = value.equals(waiting.value);
+        if (ours) {
+          metrics.valuesDecided.increment();
         }
+        waiting.result.complete(ours ? applied : null);
+      }
+      if (nextApplySlot == slot) {
+        result = applied.toString();
+      }
+      chosenLog.put(nextApplySlot, value);
+      nextApplySlot++;
+    }
+    if (!writingSnapshot && nextApplySlot - 1 - snapshotSlot >= snapshotInterval) {
+      startSnapshot(nextApplySlot - 1);
+    }
+    return result;
+  }
+
+  /**
+   * Start writing a snapshot of the state at a slot in the background. Writes keep being applied
+   * meanwhile; the writer reads a point-in-time view of the storage engine.
+   * Must be called while holding the learner lock.
+   * @param slot The last applied slot, which the snapshot will cover.
+   */
+  private void startSnapshot(int slot) {
+    StorageEngine.Snapshot state = kvStore.snapshot();
+    Configuration config = configuration;
+    writingSnapshot = true;
+    Thread writer = new Thread(() -> {
+      try {
+        snapshotStore().write(slot, state, config);
+      } catch (IOException e) {
+        log.error("could not write snapshot at slot " + slot, e);
+        writingSnapshot = false;
+        return;
+      }
+      Runnable checkpoint;
+      synchronized (learnerLock) {
+        writingSnapshot = false;
+        checkpoint = compactThrough(slot);
+      }
+      if (checkpoint != null) {
+        checkpoint.run();
+      }
+      log.info("wrote snapshot through slot " + slot);
+    }, threadName + "-snapshot");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Drop log state covered by a snapshot: retained chosen values, accepted values and the
+   * write-ahead log segments before it. Must be called while holding the learner lock. Only takes
+   * the state to checkpoint; the caller writes the checkpoint by running the returned task after
+   * releasing the lock.
+   * @param slot The last slot covered by the snapshot.
+   * @return The task that writes the write-ahead log checkpoint, or null if there is none to write.
+   */
+  private Runnable compactThrough(int slot) {
+    snapshotSlot = slot;
+    chosenLog.keySet().removeIf(s -> s <= slot);
+    WriteAheadLog.Checkpoint checkpoint;
+    int promised;
+    List<LogEntry> accepted;
+    // Hold off promises and accepts while the checkpoint starts and the state is copied: one logged
+    // before the new segment but not yet in acceptedLog would otherwise be in neither the checkpoint
+    // nor a segment that survives it. The checkpoint is written after the lock is released.
+    ballotLock.writeLock().lock();
+    try {
+      acceptedLog.keySet().removeIf(s -> s <= slot);
+      if (wal == null) {
+        return null;
+      }
+      try {
+        checkpoint = wal.beginCheckpoint();
+      } catch (IOException e) {
+        log.error("could not compact its write-ahead log", e);
+        return null;
+      }
+      promised = highestPromisedProposalId.get();
+      accepted = new ArrayList<>(acceptedLog.values());
+    } finally {
+      ballotLock.writeLock().unlock();
+    }
+    accepted.sort((a, b) -> Integer.compare(a.slot, b.slot));
+    Map<Integer, Object> decided = new TreeMap<>(chosenLog);
+    decided.putAll(decidedLog);
+    return () -> {
+      try {
+        wal.finishCheckpoint(checkpoint, promised, accepted, decided);
+      } catch (IOException e) {
+        log.error("could not compact its write-ahead log", e);
+      }
+    };
+  }
+
+  /**
+   * @return The snapshot store, next to the write-ahead log or in a temporary directory without one.
+   * @throws IOException If the directory cannot be created.
+   */
+  private SnapshotStore snapshotStore() throws IOException {
+    synchronized (learnerLock) {
+      if (snapshots == null) {
+        snapshots = new SnapshotStore(Files.createTempDirectory("paxos-server" + serverId + "-"));
       }
-      if (prepareCount >= (numServers / 2) + 1) {
+      return snapshots;
+    }
+  }
+
+  @Override
+  public int lastAppliedSlot() throws RemoteException {
+    return nextApplySlot - 1;
+  }
+
+  @Override
+  public int lastSnapshotSlot() throws RemoteException {
+    return snapshotSlot;
+  }
+
+  @Override
+  public byte[] readSnapshot(int slot, long offset, int maxBytes) throws RemoteException {
+    try {
+      return snapshotStore().readChunk(slot, offset, maxBytes);
+    } catch (IOException e) {
+      throw new RemoteException(name + " cannot read snapshot " + slot, e);
+    }
+  }
+
+  @Override
+  public List<LogEntry> chosenSince(int fromSlot, int maxEntries) throws RemoteException {
+    // No lock: an applied slot stays in the chosen log until a snapshot covers it, which ends the page
+    List<LogEntry> entries = new ArrayList<>();
+    for (int slot = fromSlot; slot < nextApplySlot && entries.size() < maxEntries; slot++) {
+      Object value = chosenLog.get(slot);
+      if (value == null) {
+        // Compacted into the snapshot, the caller has to install it first
         break;
       }
+      entries.add(new LogEntry(slot, -1, value));
     }
+    return entries;
+  }
+
+  /**
+   * Watch for a hole in front of the learned slots that does not fill by itself, which means this
+   * server missed learn messages or was restarted, and catch up from the peers when it stays.
+   */
+  private void startCatchUp() {
+    Thread catchUp = new Thread(() -> {
+      int stalledAt = -1;
+      while (true) {
+        try {
+          Thread.sleep(CATCH_UP_PERIOD);
+          int next = nextApplySlot;
+          boolean hole = !decidedLog.isEmpty() && !decidedLog.containsKey(next);
+          if (hole && stalledAt == next) {
+            catchUpFromPeers();
+          }
+          stalledAt = hole ? next : -1;
+        } catch (InterruptedException e) {
+          return;
+        } catch (RemoteException | RuntimeException e) {
+          // Try again on the next check
+        }
+      }
+    }, threadName + "-catchup");
+    catchUp.setDaemon(true);
+    catchUp.start();
+  }
 
-    if (prepareCount >= (numServers / 2) + 1) {
-      for (int i = 0; i < numServers; i++) {
-        if (acceptors[i] != null) {
-          acceptors[i].accept(proposalId, proposalValue);
+  /**
+   * Catch up from the peer learners that are ahead of this server, the most advanced first, moving
+   * on to the next one if a peer fails or stops answering midway. Every call to a peer is bounded
+   * by the peer call timeout, so a paused peer cannot hold the catch-up.
+   * @throws RemoteException If no peer ahead could be caught up from.
+   */
+  private void catchUpFromPeers() throws RemoteException {
+    List<CompletableFuture<Integer>> answers = new ArrayList<>();
+    for (int i = 0; i < learners.length; i++) {
+      answers.add(learners[i] == null ? null : fanOut.request(i, learners[i], LearnerInterface::lastAppliedSlot));
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PeerFanOut.DEFAULT_CALL_TIMEOUT_MILLIS);
+    Map<Integer, Integer> appliedByPeer = new HashMap<>();
+    for (int i = 0; i < answers.size(); i++) {
+      if (answers.get(i) == null) {
+        continue;
+      }
+      try {
+        int applied = answers.get(i).get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (applied >= nextApplySlot) {
+          appliedByPeer.put(i, applied);
         }
+      } catch (ExecutionException | TimeoutException e) {
+        // Skip unreachable peers
+        answers.get(i).cancel(false);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
       }
-      for (int i = 0; i < numServers; i++) {
-        if (learners[i] != null) {
-          learners[i].learn(proposalId, proposalValue);
+    }
+    List<Integer> ahead = new ArrayList<>(appliedByPeer.keySet());
+    ahead.sort((a, b) -> Integer.compare(appliedByPeer.get(b), appliedByPeer.get(a)));
+    RemoteException failure = null;
+    for (int peer : ahead) {
+      try {
+        catchUpFrom(peer);
+        return;
+      } catch (RemoteException e) {
+        log.warn("could not catch up from server " + peer + ", trying the next one: " + e.getMessage());
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Bring this server up to date from a peer: install the peer's snapshot if the peer compacted
+   * slots this server still needs, then learn the peer's log tail page by page.
+   * @param peer The index of the learner to copy from.
+   * @throws RemoteException If a remote error occurs or the peer does not answer in time.
+   */
+  private void catchUpFrom(int peer) throws RemoteException {
+    int peerSnapshotSlot = fanOut.callWithin(peer, learners[peer], LearnerInterface::lastSnapshotSlot);
+    if (peerSnapshotSlot >= nextApplySlot) {
+      installSnapshotFrom(peer, peerSnapshotSlot);
+    }
+    List<LogEntry> tail;
+    do {
+      int from = nextApplySlot;
+      tail = fanOut.callWithin(peer, learners[peer], learner -> learner.chosenSince(from, CATCH_UP_PAGE));
+      for (LogEntry entry : tail) {
+        learn(entry.proposalId, entry.slot, entry.value);
+      }
+    } while (tail.size() == CATCH_UP_PAGE);
+  }
+
+  /**
+   * Stream a peer's snapshot in chunks and replace the local state with it.
+   * @param peer The index of the learner to copy from.
+   * @param slot The peer's snapshot slot.
+   * @throws RemoteException If a remote error occurs, the peer does not answer in time or the
+   *     snapshot cannot be stored.
+   */
+  private void installSnapshotFrom(int peer, int slot) throws RemoteException {
+    try {
+      SnapshotStore store = snapshotStore();
+      try (OutputStream out = store.beginInstall(slot)) {
+        long offset = 0L;
+        byte[] chunk;
+        do {
+          long from = offset;
+          chunk = fanOut.callWithin(peer, learners[peer], learner -> learner.readSnapshot(slot, from, CATCH_UP_CHUNK_BYTES));
+          out.write(chunk);
+          offset += chunk.length;
+        } while (chunk.length > 0);
+      }
+      // Check and load the whole snapshot aside, so a corrupt one leaves the live store untouched
+      StorageEngine installed = StorageEngine.create();
+      Configuration installedConfiguration = store.loadInstall(slot, installed);
+      Runnable checkpoint;
+      synchronized (learnerLock) {
+        if (slot < nextApplySlot || writingSnapshot) {
+          // Caught up by other means meanwhile, or a local snapshot is being written
+          return;
         }
+        store.finishInstall(slot);
+        kvStore = installed;
+        configuration = installedConfiguration;
+        nextApplySlot = slot + 1;
+        changeFeed.reset(VersionedValue.versionOf(nextApplySlot, 0) - 1);
+        decidedLog.keySet().removeIf(s -> s <= slot);
+        nextSlot.accumulateAndGet(slot + 1, Math::max);
+        checkpoint = compactThrough(slot);
+      }
+      if (checkpoint != null) {
+        checkpoint.run();
       }
+      log.info("installed snapshot through slot " + slot);
+    } catch (IOException e) {
+      throw new RemoteException(name + " could not install snapshot " + slot, e);
     }
-    return Utils.getCurrentTimestamp() + ", Server " + serverId + " receiving proposing operation: " + ((Operation) proposalValue).toString();
   }
 
-  @Override
-  public synchronized String learn(int proposalId, Object acceptedValue) throws RemoteException {
-    // Implement Paxos learn logic here
-    if (proposalId >= highestAcceptedProposalId) {
-      highestAcceptedProposalId = proposalId;
-      acceptedProposalValue = (Operation) acceptedValue;
-      return applyOperation(acceptedProposalValue);
+  /**
+   * Apply the value chosen for one log slot. A batch is applied as a whole, in order, and a
+   * configuration takes effect for the slots after it.
+   * @param value The chosen value.
+   * @param slot The log slot of the value.
+   * @return The result of an operation, or the list of per-operation results of a batch.
+   */
+  private Object applyValue(Object value, int slot) {
+    if (value instanceof Configuration) {
+      configuration = (Configuration) value;
+      log.info("applied " + value + " at slot " + slot);
+      return OperationResult.applied(OperationResult.Status.OK, null, slot);
+    }
+    if (value instanceof Batch) {
+      List<Object> operations = ((Batch) value).operations;
+      List<OperationResult> results = new ArrayList<>(operations.size());
+      for (int position = 0; position < operations.size(); position++) {
+        results.add(applyOperation(operations.get(position), slot, position));
+      }
+      return results;
     }
-    return "";
+    return applyOperation(value, slot, 0);
   }
 
   /**
-   * Apply the given operation to the key-value store.
-   * @param operation The operation to apply.
+   * Apply the given operation to the key-value store. The cost does not depend on the store size.
+   * @param value The single-key or multi-key operation to apply.
+   * @param slot The log slot the operation was chosen in, or the last applied slot for a local read.
+   * @param position The position of the operation within the batch chosen for the slot.
+   * @return The result of the operation.
    */
-  private synchronized String applyOperation(Operation operation) {
-    if (operation == null) return Utils.getCurrentTimestamp() + "No Operation sent";
+  private OperationResult applyOperation(Object value, int slot, int position) {
+    if (value == null) return OperationResult.failed(OperationResult.Status.FAILED, "No Operation sent");
+    long start = System.nanoTime();
+    long version = VersionedValue.versionOf(slot, position);
+    OperationResult result;
+    synchronized (learnerLock) {
+      if (value instanceof MultiOperation multi) {
+        result = multi.type.equals("WRITE_BATCH") ? applyWriteBatch(multi, slot, version) : applyEach(multi, slot, version);
+      } else {
+        result = applyKeyOperation((Operation) value, slot, version);
+      }
+    }
+    metrics.apply.record(System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   * Apply a single-key operation. Must be called while holding the learner lock.
+   */
+  private OperationResult applyKeyOperation(Operation operation, int slot, long version) {
+    VersionedValue current;
     switch (operation.type) {
+      case "NOOP":
+        // No operation, filled an empty log slot
+        return OperationResult.applied(OperationResult.Status.OK, null, slot);
       case "GET":
-        if (!kvStore.containsKey(operation.key)) {
-          this.response = "Key does not exist, try another key.";
-        } else {
-          this.response = "Here is your value " + kvStore.get(operation.key);
-        }
-        break;
+        current = kvStore.get(operation.key);
+        return current == null ? OperationResult.applied(OperationResult.Status.NOT_FOUND, null, slot)
+            : OperationResult.applied(OperationResult.Status.OK, current.value, slot, current.version);
       case "PUT":
-        if (kvStore.containsKey(operation.key)) {
-          this.response = "Key already exist, try another key.";
-        } else {
-          kvStore.put(operation.key, operation.value);
-          this.response = "OK saved operation: {key= " + operation.key + ", value= " + operation.value + "}\n" + Utils.getCurrentTimestamp() + ", current operations in server" + this.serverId + ": " + kvStore;
+        current = kvStore.get(operation.key);
+        if (current != null) {
+          return OperationResult.applied(OperationResult.Status.ALREADY_EXISTS, null, slot, current.version);
         }
-        break;
+        kvStore.put(operation.key, operation.value, version);
+        changeFeed.append(operation.key, operation.value, version);
+        return OperationResult.applied(OperationResult.Status.OK, null, slot, version);
       case "DELETE":
-        if (!kvStore.containsKey(operation.key)) {
-          this.response = "Key does not exist.\noperations left: " + kvStore;
-        } else {
-          kvStore.remove(operation.key);
-          this.response = "Deleted key as requested.\nOperations left: " + kvStore;
+        if (!kvStore.remove(operation.key)) {
+          return OperationResult.applied(OperationResult.Status.NOT_FOUND, null, slot);
         }
-        break;
+        changeFeed.append(operation.key, null, version);
+        return OperationResult.applied(OperationResult.Status.OK, null, slot);
       default:
         throw new IllegalArgumentException("Unknown operation type: " + operation.type);
     }
-    return Utils.getCurrentTimestamp() + ", " + this.response;
+  }
+
+  /**
+   * Apply every part of a multi-key GET, PUT or DELETE on its own, as if they had been sent one
+   * after the other. Must be called while holding the learner lock.
+   */
+  private OperationResult applyEach(MultiOperation multi, int slot, long version) {
+    List<OperationResult> results = new ArrayList<>(multi.parts.size());
+    for (Operation part : multi.parts) {
+      results.add(applyKeyOperation(part, slot, version));
+    }
+    return OperationResult.multi(slot, results);
+  }
+
+  /**
+   * Apply a write batch if every expected version matches, or else nothing. Must be called while
+   * holding the learner lock.
+   */
+  private OperationResult applyWriteBatch(MultiOperation batch, int slot, long version) {
+    for (int i = 0; i < batch.parts.size(); i++) {
+      long expected = batch.expectedVersions[i];
+      VersionedValue current = kvStore.get(batch.parts.get(i).key);
+      long actual = current == null ? OperationResult.NO_VERSION : current.version;
+      if (expected != WriteBatch.ANY_VERSION && expected != actual) {
+        return OperationResult.rejected(OperationResult.Status.CONFLICT, slot,
+            batch.parts.get(i).key + " has version " + actual + ", expected " + expected);
+      }
+    }
+    for (Operation part : batch.parts) {
+      if (part.type.equals("SET")) {
+        kvStore.put(part.key, part.value, version);
+        changeFeed.append(part.key, part.value, version);
+      } else if (part.type.equals("DELETE") && kvStore.remove(part.key)) {
+        changeFeed.append(part.key, null, version);
+      }
+    }
+    return OperationResult.applied(OperationResult.Status.OK, null, slot, version);
+  }
+
+  /**
+   * Static class representing the store sorted by key as it was at the first page of a dump. The
+   * later pages seek into it instead of scanning the store again, and all come from one point in time.
+   */
+  private static class DumpView {
+    final TreeMap<String, String> entries = new TreeMap<>();
+    final long createdNanos = System.nanoTime();
+
+    DumpView(StorageEngine.Snapshot state) throws IOException {
+      state.forEach((key, value, version) -> entries.put(key, value));
+    }
+
+    boolean isStale() {
+      return System.nanoTime() - createdNanos > TimeUnit.MILLISECONDS.toNanos(DUMP_VIEW_MILLIS);
+    }
+  }
+
+  /**
+   * Static class representing a local caller waiting for a log slot to be applied.
+   */
+  private static class PendingResult {
+    final int slot;
+    final Object value;
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    PendingResult(int slot, Object value) {
+      this.slot = slot;
+      this.value = value;
+    }
   }
 
   /**
    * Static class representing an operation on the key-value store.
    */
-  private static class Operation {
+  static class Operation implements Serializable {
+    private static final long serialVersionUID = 1L;
     String type;
     String key;
     String value;
+    long id; // Tells apart two proposals of the same operation, such as two clients deleting one key
 
     Operation(String type, String key, String value) {
+      this(type, key, value, ThreadLocalRandom.current().nextLong());
+    }
+
+    Operation(String type, String key, String value, long id) {
       this.type = type;
       this.key = key;
       this.value = value;
+      this.id = id;
     }
 
     Operation(String type, String key) {
       this(type, key, null);
     }
 
+    /**
+     * @return An operation that leaves the key-value store unchanged, used to fill log holes.
+     */
+    static Operation noop() {
+      return new Operation("NOOP", null, null);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Operation)) {
+        return false;
+      }
+      Operation operation = (Operation) other;
+      return id == operation.id && Objects.equals(type, operation.type) && Objects.equals(key, operation.key)
+          && Objects.equals(value, operation.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(id);
+    }
+
     @Override
     public String toString() {
       if (value == null) {
@@ -274,4 +1848,41 @@ public class Server implements ProposerInterface, AcceptorInterface, LearnerInte
       }
     }
   }
+
+  /**
+   * Static class representing an operation on many keys, decided as one value and applied in one
+   * step: MULTI_GET, MULTI_PUT and MULTI_DELETE apply each part on its own, WRITE_BATCH applies all
+   * of its SET, DELETE and CHECK parts or none.
+   */
+  static class MultiOperation implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String type;
+    List<Operation> parts;
+    long[] expectedVersions; // Per part, for WRITE_BATCH only
+
+    MultiOperation(String type, List<Operation> parts, long[] expectedVersions) {
+      this.type = type;
+      this.parts = parts;
+      this.expectedVersions = expectedVersions;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof MultiOperation)) {
+        return false;
+      }
+      MultiOperation operation = (MultiOperation) other;
+      return type.equals(operation.type) && parts.equals(operation.parts) && Arrays.equals(expectedVersions, operation.expectedVersions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, parts) * 31 + Arrays.hashCode(expectedVersions);
+    }
+
+    @Override
+    public String toString() {
+      return type + " " + parts;
+    }
+  }
 }
@@ -0,0 +1,135 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * The ServerMetrics of one server: how long each Paxos phase takes, how often this server's
+ * promises and accepts are refused, how many rounds it needs per chosen value, and how its calls
+ * to each peer perform. Everything is recorded with atomic counters and never takes a lock, so
+ * the instrumentation adds no contention to the acceptor and learner paths.
+ */
+public class ServerMetrics {
+  /** Time to handle a prepare as an acceptor. */
+  final ConcurrentLatencyHistogram prepare = new ConcurrentLatencyHistogram();
+  /** Time to handle an accept as an acceptor. */
+  final ConcurrentLatencyHistogram accept = new ConcurrentLatencyHistogram();
+  /** Time to handle a learn, including applying what it unblocked. */
+  final ConcurrentLatencyHistogram learn = new ConcurrentLatencyHistogram();
+  /** Time to apply one operation to the store. */
+  final ConcurrentLatencyHistogram apply = new ConcurrentLatencyHistogram();
+  /** Time for this server, as a proposer, to get a quorum of promises. */
+  final ConcurrentLatencyHistogram phaseOneRound = new ConcurrentLatencyHistogram();
+  /** Time for this server, as a proposer, to get a quorum of accepts for a slot. */
+  final ConcurrentLatencyHistogram phaseTwoRound = new ConcurrentLatencyHistogram();
+  final LongAdder preparesRejected = new LongAdder();
+  final LongAdder acceptsRejected = new LongAdder();
+  final LongAdder phaseTwoRounds = new LongAdder();
+  final LongAdder valuesDecided = new LongAdder();
+  /** Attempts of this server, as a proposer, that an acceptor rejected for a higher ballot. */
+  final LongAdder proposalsPreempted = new LongAdder();
+  /** Operations this server gave up on after spending their retry budget. */
+  final LongAdder retryBudgetsExhausted = new LongAdder();
+  final AtomicInteger inFlightProposals = new AtomicInteger();
+
+  private final int serverId;
+  private final int groupId;
+  private final ConcurrentLatencyHistogram[] peerCalls;
+  private final LongAdder[] peerFailures;
+  private final IntSupplier keyCount;
+  private final FailureDetector detector;
+
+  /**
+   * Constructor to create the metrics of a server.
+   * @param serverId The ID of the server, whose own peer slot is left out.
+   * @param groupId The Paxos group the server is a replica of.
+   * @param numServers The number of servers, one peer slot per server.
+   * @param keyCount Reads the current number of keys in the store.
+   * @param detector Reports how strongly each peer is suspected to be down.
+   */
+  public ServerMetrics(int serverId, int groupId, int numServers, IntSupplier keyCount, FailureDetector detector) {
+    this.serverId = serverId;
+    this.groupId = groupId;
+    this.keyCount = keyCount;
+    this.detector = detector;
+    this.peerCalls = new ConcurrentLatencyHistogram[numServers];
+    this.peerFailures = new LongAdder[numServers];
+    for (int i = 0; i < numServers; i++) {
+      peerCalls[i] = new ConcurrentLatencyHistogram();
+      peerFailures[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record one remote call made to a peer.
+   * @param peer The index of the peer.
+   * @param nanos How long the call took.
+   * @param failed True if the call failed with a remote error.
+   */
+  public void recordPeerCall(int peer, long nanos, boolean failed) {
+    peerCalls[peer].record(nanos);
+    if (failed) {
+      peerFailures[peer].increment();
+    }
+  }
+
+  /**
+   * @return The ID of the server these metrics belong to.
+   */
+  public int getServerId() {
+    return serverId;
+  }
+
+  /**
+   * @return The Paxos group of the server these metrics belong to.
+   */
+  public int getGroupId() {
+    return groupId;
+  }
+
+  /**
+   * Read every metric. Latencies are in microseconds. The names and their order are the same on
+   * every call, so they can serve as attribute names.
+   * @return The metrics by name.
+   */
+  public Map<String, Number> snapshot() {
+    Map<String, Number> values = new LinkedHashMap<>();
+    putLatencies(values, "prepare", prepare);
+    putLatencies(values, "accept", accept);
+    putLatencies(values, "learn", learn);
+    putLatencies(values, "apply", apply);
+    putLatencies(values, "phase1_round", phaseOneRound);
+    putLatencies(values, "phase2_round", phaseTwoRound);
+    values.put("prepare_rejected", preparesRejected.sum());
+    values.put("accept_rejected", acceptsRejected.sum());
+    long decided = valuesDecided.sum();
+    values.put("values_decided", decided);
+    values.put("rounds_per_decided_value", decided == 0 ? 0.0 : (double) phaseTwoRounds.sum() / decided);
+    values.put("in_flight_proposals", inFlightProposals.get());
+    values.put("proposals_preempted", proposalsPreempted.sum());
+    values.put("retry_budgets_exhausted", retryBudgetsExhausted.sum());
+    values.put("kv_size", keyCount.getAsInt());
+    values.put("log_events_dropped", AsyncLogger.getDroppedEvents());
+    long now = System.nanoTime();
+    for (int i = 0; i < peerCalls.length; i++) {
+      if (i != serverId) {
+        putLatencies(values, "peer" + i + "_call", peerCalls[i]);
+        values.put("peer" + i + "_call_failures", peerFailures[i].sum());
+        values.put("peer" + i + "_phi", detector.phi(i, now));
+        values.put("peer" + i + "_suspected", detector.isSuspected(i) ? 1 : 0);
+      }
+    }
+    return values;
+  }
+
+  private static void putLatencies(Map<String, Number> values, String name, ConcurrentLatencyHistogram histogram) {
+    LatencyHistogram latencies = histogram.snapshot();
+    values.put(name + "_count", latencies.getTotalCount());
+    values.put(name + "_mean_us", latencies.getMean() / 1e3);
+    values.put(name + "_p50_us", latencies.getValueAtPercentile(50.0) / 1e3);
+    values.put(name + "_p99_us", latencies.getValueAtPercentile(99.0) / 1e3);
+    values.put(name + "_p999_us", latencies.getValueAtPercentile(99.9) / 1e3);
+    values.put(name + "_max_us", latencies.getMax() / 1e3);
+  }
+}
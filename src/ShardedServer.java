@@ -0,0 +1,269 @@
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ShardedServer is what clients of one server talk to when the key space is split over several
+ * independent Paxos groups. Each key belongs to exactly one group, picked by hashing the key, and
+ * every call is handed to this server's replica of that group. Groups share nothing: each has its
+ * own log, acceptor state, leader and locks, so writes to different groups are decided in parallel.
+ */
+public class ShardedServer implements KVStoreInterface, ClusterInterface {
+  private final Server[] groups;
+  private volatile List<InetSocketAddress> clientAddresses = List.of();
+  private final ReentrantLock changeLock = new ReentrantLock();
+  private final Condition changed = changeLock.newCondition();
+  private long changeCount; // Changes applied by any group, guarded by changeLock
+
+  /**
+   * Constructor to create a ShardedServer.
+   * @param groups This server's replica of every group, indexed by group ID.
+   */
+  public ShardedServer(Server[] groups) {
+    this.groups = groups;
+    if (groups.length > 1) {
+      for (Server group : groups) {
+        group.getChangeFeed().addListener(this::signalChange);
+      }
+    }
+  }
+
+  private void signalChange() {
+    changeLock.lock();
+    try {
+      changeCount++;
+      changed.signalAll();
+    } finally {
+      changeLock.unlock();
+    }
+  }
+
+  /**
+   * Set where every server of the cluster accepts client operations over the NIO transport.
+   * @param clientAddresses The address of each server, indexed by server ID.
+   */
+  public void setClientAddresses(List<InetSocketAddress> clientAddresses) {
+    this.clientAddresses = List.copyOf(clientAddresses);
+  }
+
+  /**
+   * @return The server this server takes for the leader of each group, -1 without a stable leader.
+   */
+  public int[] leaders() {
+    int[] leaders = new int[groups.length];
+    for (int i = 0; i < groups.length; i++) {
+      leaders[i] = groups[i].getLeaderId();
+    }
+    return leaders;
+  }
+
+  /**
+   * Find the group a key belongs to.
+   * @param key The key.
+   * @param numGroups The number of groups.
+   * @return The ID of the group that owns the key.
+   */
+  public static int groupOf(String key, int numGroups) {
+    // Spread the string hash so that keys differing only in their last characters still spread evenly
+    int hash = key.hashCode() * 0x9E3779B9;
+    return Math.floorMod(hash ^ (hash >>> 16), numGroups);
+  }
+
+  @Override
+  public OperationResult get(String key) throws RemoteException {
+    return groups[groupOf(key, groups.length)].get(key);
+  }
+
+  @Override
+  public OperationResult put(String key, String value) throws RemoteException {
+    return groups[groupOf(key, groups.length)].put(key, value);
+  }
+
+  @Override
+  public OperationResult delete(String key) throws RemoteException {
+    return groups[groupOf(key, groups.length)].delete(key);
+  }
+
+  @Override
+  public Map<String, OperationResult> multiGet(List<String> keys) throws RemoteException {
+    // Refuse a repeated key before any group applies its part
+    Map<String, OperationResult> rejected = Server.rejectDuplicateKeys("MULTI_GET", keys);
+    if (rejected != null) {
+      return rejected;
+    }
+    Map<String, OperationResult> results = new LinkedHashMap<>();
+    for (Map.Entry<Integer, List<String>> group : keysByGroup(keys).entrySet()) {
+      results.putAll(groups[group.getKey()].multiGet(group.getValue()));
+    }
+    return inOrder(keys, results);
+  }
+
+  @Override
+  public Map<String, OperationResult> multiPut(Map<String, String> entries) throws RemoteException {
+    Map<String, OperationResult> results = new LinkedHashMap<>();
+    for (Map.Entry<Integer, List<String>> group : keysByGroup(entries.keySet()).entrySet()) {
+      Map<String, String> groupEntries = new LinkedHashMap<>();
+      for (String key : group.getValue()) {
+        groupEntries.put(key, entries.get(key));
+      }
+      results.putAll(groups[group.getKey()].multiPut(groupEntries));
+    }
+    return inOrder(entries.keySet(), results);
+  }
+
+  @Override
+  public Map<String, OperationResult> multiDelete(List<String> keys) throws RemoteException {
+    // Refuse a repeated key before any group applies its part
+    Map<String, OperationResult> rejected = Server.rejectDuplicateKeys("MULTI_DELETE", keys);
+    if (rejected != null) {
+      return rejected;
+    }
+    Map<String, OperationResult> results = new LinkedHashMap<>();
+    for (Map.Entry<Integer, List<String>> group : keysByGroup(keys).entrySet()) {
+      results.putAll(groups[group.getKey()].multiDelete(group.getValue()));
+    }
+    return inOrder(keys, results);
+  }
+
+  /**
+   * Apply a write batch. Groups decide independently, so a batch is atomic only within one group
+   * and every key of the batch must belong to the same group.
+   */
+  @Override
+  public OperationResult write(WriteBatch batch) throws RemoteException {
+    Map<Integer, List<String>> keysByGroup = keysByGroup(batch.keys());
+    if (keysByGroup.size() > 1) {
+      return OperationResult.failed(OperationResult.Status.FAILED,
+          "The keys of a write batch must belong to one Paxos group, found " + keysByGroup.size());
+    }
+    if (keysByGroup.isEmpty()) {
+      return OperationResult.failed(OperationResult.Status.FAILED, "Empty write batch");
+    }
+    return groups[keysByGroup.keySet().iterator().next()].write(batch);
+  }
+
+  /**
+   * Split keys by the group that owns them, keeping their order within each group.
+   */
+  private Map<Integer, List<String>> keysByGroup(Iterable<String> keys) {
+    Map<Integer, List<String>> keysByGroup = new TreeMap<>();
+    for (String key : keys) {
+      keysByGroup.computeIfAbsent(groupOf(key, groups.length), group -> new ArrayList<>()).add(key);
+    }
+    return keysByGroup;
+  }
+
+  private static Map<String, OperationResult> inOrder(Iterable<String> keys, Map<String, OperationResult> results) {
+    Map<String, OperationResult> ordered = new LinkedHashMap<>();
+    for (String key : keys) {
+      ordered.put(key, results.get(key));
+    }
+    return ordered;
+  }
+
+  @Override
+  public List<InetSocketAddress> clientAddresses() {
+    return clientAddresses;
+  }
+
+  @Override
+  public List<OperationResult> reconfigure(List<Integer> members, int phaseTwoQuorum) throws RemoteException {
+    Configuration next;
+    try {
+      next = new Configuration(members, phaseTwoQuorum, groups[0].getNumServers());
+    } catch (IllegalArgumentException e) {
+      return List.of(OperationResult.failed(OperationResult.Status.FAILED, e.getMessage()));
+    }
+    List<OperationResult> results = new ArrayList<>(groups.length);
+    for (Server group : groups) {
+      results.add(group.reconfigure(next));
+    }
+    return results;
+  }
+
+  @Override
+  public WatchBatch watch(String prefix, long[] cursor, int maxChanges, long timeoutMillis) throws RemoteException {
+    if (groups.length == 1) {
+      return groups[0].watch(prefix, cursor, maxChanges, timeoutMillis);
+    }
+    if (cursor != null && cursor.length != groups.length) {
+      throw new RemoteException("A cursor of " + cursor.length + " groups does not fit " + groups.length + " groups");
+    }
+    long[] next = new long[groups.length];
+    Arrays.fill(next, WatchBatch.NOW);
+    if (cursor != null) {
+      System.arraycopy(cursor, 0, next, 0, next.length);
+    }
+    int limit = Math.max(1, maxChanges);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, timeoutMillis));
+    while (true) {
+      long seen;
+      changeLock.lock();
+      try {
+        seen = changeCount;
+      } finally {
+        changeLock.unlock();
+      }
+      // A group's changes are ordered by its own log, there is no order across groups. The groups
+      // share the page: each is read for what is left of it, from a random first group so a busy
+      // group cannot keep the others waiting, and the groups not read keep their cursor entry.
+      List<WatchBatch.Change> changes = new ArrayList<>();
+      boolean compacted = false;
+      int first = ThreadLocalRandom.current().nextInt(groups.length);
+      for (int i = 0; i < groups.length && changes.size() < limit; i++) {
+        int groupId = (first + i) % groups.length;
+        WatchBatch part = groups[groupId].watch(prefix, new long[] {next[groupId]}, limit - changes.size(), 0L);
+        changes.addAll(part.getChanges());
+        next[groupId] = part.getCursor()[0];
+        compacted |= part.isCompacted();
+      }
+      long remaining = deadline - System.nanoTime();
+      if (!changes.isEmpty() || compacted || remaining <= 0L) {
+        return new WatchBatch(changes, next, compacted);
+      }
+      changeLock.lock();
+      try {
+        while (changeCount == seen && remaining > 0L) {
+          remaining = changed.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new WatchBatch(changes, next, false);
+      } finally {
+        changeLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public StorePage dump(String afterKey, int maxEntries) throws RemoteException {
+    // Every group holds its own part of the key order, so merge the first page of each
+    TreeMap<String, String> merged = new TreeMap<>();
+    boolean more = false;
+    for (Server group : groups) {
+      StorePage page = group.dump(afterKey, maxEntries);
+      merged.putAll(page.getEntries());
+      more |= page.getNextKey() != null;
+    }
+    Map<String, String> entries = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, String>> iterator = merged.entrySet().iterator();
+    String lastKey = null;
+    while (entries.size() < maxEntries && iterator.hasNext()) {
+      Map.Entry<String, String> entry = iterator.next();
+      entries.put(entry.getKey(), entry.getValue());
+      lastKey = entry.getKey();
+    }
+    more |= iterator.hasNext();
+    return new StorePage(entries, more && lastKey != null ? lastKey : null);
+  }
+}
@@ -0,0 +1,291 @@
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The SimulatedNetwork connects replicas running in one JVM through links that behave like a
+ * lossy network. Every message waits a latency drawn from a {@link LatencyModel}, may be lost, is
+ * lost whenever a partition separates its two ends, and waits while either end is paused.
+ *
+ * <p>The fate of a message is drawn from a random generator of its own link, seeded from the
+ * simulation seed and the two ends, so the same seed gives every link the same sequence of
+ * latencies and losses. A lost request never reaches the receiver; a lost reply is dropped after
+ * the receiver handled the request, as when a connection breaks mid-call. Either way the sender
+ * gets a RemoteException once the latency has passed.
+ */
+public class SimulatedNetwork {
+  /** The sender ID of client operations, which no partition cuts off. */
+  public static final int CLIENT = -1;
+
+  private final int numServers;
+  private final LatencyModel latency;
+  private final double lossRate;
+  private final SplittableRandom[] links; // Indexed by (from + 1) * numServers + to
+  private final int[] partitionOf; // Servers with different partitions cannot reach each other, guarded by this
+  private final boolean[] paused; // Guarded by this
+
+  /**
+   * How long a message takes to travel over a link.
+   */
+  @FunctionalInterface
+  public interface LatencyModel {
+    /**
+     * @param random The random generator of the link.
+     * @return The delay of one message, in nanoseconds.
+     */
+    long sampleNanos(SplittableRandom random);
+
+    /**
+     * Parse a latency model: {@code fixed:<ms>}, {@code uniform:<min ms>:<max ms>},
+     * {@code exponential:<mean ms>} or {@code lognormal:<median ms>:<sigma>}.
+     * @param spec The model and its parameters.
+     * @return The latency model.
+     * @throws IllegalArgumentException If the model is unknown or a parameter is missing.
+     */
+    static LatencyModel parse(String spec) {
+      String[] parts = spec.split(":");
+      try {
+        switch (parts[0]) {
+          case "fixed": {
+            long nanos = millisToNanos(parts[1]);
+            return random -> nanos;
+          }
+          case "uniform": {
+            long min = millisToNanos(parts[1]);
+            long max = millisToNanos(parts[2]);
+            return random -> min + random.nextLong(max - min + 1);
+          }
+          case "exponential": {
+            double mean = millisToNanos(parts[1]);
+            return random -> (long) (-mean * Math.log(1.0 - random.nextDouble()));
+          }
+          case "lognormal": {
+            double median = millisToNanos(parts[1]);
+            double sigma = Double.parseDouble(parts[2]);
+            return random -> (long) (median * Math.exp(sigma * gaussian(random)));
+          }
+          default:
+            throw new IllegalArgumentException("Unknown latency model: " + parts[0]);
+        }
+      } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid latency model: " + spec, e);
+      }
+    }
+  }
+
+  /**
+   * A call made to a replica over a link.
+   * @param <R> The type of the reply.
+   */
+  @FunctionalInterface
+  public interface RemoteCall<R> {
+    R call() throws RemoteException;
+  }
+
+  /**
+   * Constructor to create a SimulatedNetwork in which every server can reach every other.
+   * @param numServers The number of servers.
+   * @param seed The seed of every link's random generator.
+   * @param latency The delay of each message, request and reply alike.
+   * @param lossRate The probability that a request, or its reply, is lost.
+   */
+  public SimulatedNetwork(int numServers, long seed, LatencyModel latency, double lossRate) {
+    this.numServers = numServers;
+    this.latency = latency;
+    this.lossRate = lossRate;
+    this.links = new SplittableRandom[(numServers + 1) * numServers];
+    for (int from = CLIENT; from < numServers; from++) {
+      for (int to = 0; to < numServers; to++) {
+        links[(from + 1) * numServers + to] = new SplittableRandom(seed * 31L * 31L + (from + 1) * 31L + to);
+      }
+    }
+    this.partitionOf = new int[numServers];
+    this.paused = new boolean[numServers];
+  }
+
+  /**
+   * Split the servers: those listed can only reach each other, and the rest can only reach each
+   * other. Replaces any earlier partition.
+   * @param side The IDs of the servers on one side.
+   */
+  public synchronized void partition(List<Integer> side) {
+    Arrays.fill(partitionOf, 0);
+    for (int serverId : side) {
+      partitionOf[serverId] = 1;
+    }
+  }
+
+  /**
+   * Let every server reach every other again.
+   */
+  public synchronized void heal() {
+    Arrays.fill(partitionOf, 0);
+  }
+
+  /**
+   * Stop a server from sending or handling messages, as a long garbage collection or a stopped
+   * process would. Messages to and from it wait until it resumes.
+   * @param serverId The ID of the server.
+   */
+  public synchronized void pause(int serverId) {
+    paused[serverId] = true;
+  }
+
+  /**
+   * Let a paused server send and handle messages again.
+   * @param serverId The ID of the server.
+   */
+  public synchronized void resume(int serverId) {
+    paused[serverId] = false;
+    notifyAll();
+  }
+
+  /**
+   * Make a call from one server to another over their link.
+   * @param from The ID of the sender, or {@link #CLIENT}.
+   * @param to The ID of the receiver.
+   * @param call The call to make on the receiver.
+   * @return The reply of the receiver.
+   * @throws RemoteException If the request or the reply was lost, or the receiver failed.
+   */
+  public <R> R call(int from, int to, RemoteCall<R> call) throws RemoteException {
+    awaitRunning(from);
+    // Draw the whole fate at once, so every message takes the same number of draws from its link
+    SplittableRandom link = links[(from + 1) * numServers + to];
+    long requestDelay;
+    long replyDelay;
+    boolean requestLost;
+    boolean replyLost;
+    synchronized (link) {
+      requestDelay = latency.sampleNanos(link);
+      replyDelay = latency.sampleNanos(link);
+      requestLost = link.nextDouble() < lossRate;
+      replyLost = link.nextDouble() < lossRate;
+    }
+    sleep(requestDelay);
+    if (requestLost || !connected(from, to)) {
+      throw new RemoteException("Request from " + from + " to " + to + " lost");
+    }
+    awaitRunning(to);
+    R reply = call.call();
+    sleep(replyDelay);
+    if (replyLost || !connected(from, to)) {
+      throw new RemoteException("Reply from " + to + " to " + from + " lost");
+    }
+    awaitRunning(from);
+    return reply;
+  }
+
+  private synchronized boolean connected(int from, int to) {
+    return from == CLIENT || partitionOf[from] == partitionOf[to];
+  }
+
+  private synchronized void awaitRunning(int serverId) throws RemoteException {
+    if (serverId == CLIENT) {
+      return;
+    }
+    try {
+      while (paused[serverId]) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while server " + serverId + " is paused");
+    }
+  }
+
+  private static void sleep(long nanos) throws RemoteException {
+    try {
+      Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted in transit");
+    }
+  }
+
+  private static long millisToNanos(String millis) {
+    return (long) (Double.parseDouble(millis) * 1_000_000L);
+  }
+
+  private static double gaussian(SplittableRandom random) {
+    // Box-Muller, from the link's own generator so the draw stays reproducible
+    double u = 1.0 - random.nextDouble();
+    return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * random.nextDouble());
+  }
+
+  /**
+   * The view one server has of another: every acceptor, learner and proposer call goes over the
+   * link between them.
+   */
+  public static class Link implements AcceptorInterface, LearnerInterface, ProposerInterface {
+    private final SimulatedNetwork network;
+    private final int from;
+    private final int to;
+    private final Server target;
+
+    /**
+     * Constructor to create a Link.
+     * @param network The network the link belongs to.
+     * @param from The ID of the calling server.
+     * @param to The ID of the called server.
+     * @param target The called server.
+     */
+    public Link(SimulatedNetwork network, int from, int to, Server target) {
+      this.network = network;
+      this.from = from;
+      this.to = to;
+      this.target = target;
+    }
+
+    @Override
+    public int prepare(int proposalId) throws RemoteException {
+      return network.call(from, to, () -> target.prepare(proposalId));
+    }
+
+    @Override
+    public List<LogEntry> acceptedEntries(int fromSlot) throws RemoteException {
+      return network.call(from, to, () -> target.acceptedEntries(fromSlot));
+    }
+
+    @Override
+    public boolean accept(int proposalId, int slot, Object proposalValue) throws RemoteException {
+      return network.call(from, to, () -> target.accept(proposalId, slot, proposalValue));
+    }
+
+    @Override
+    public String learn(int proposalId, int slot, Object acceptedValue) throws RemoteException {
+      return network.call(from, to, () -> target.learn(proposalId, slot, acceptedValue));
+    }
+
+    @Override
+    public int lastAppliedSlot() throws RemoteException {
+      return network.call(from, to, target::lastAppliedSlot);
+    }
+
+    @Override
+    public int lastSnapshotSlot() throws RemoteException {
+      return network.call(from, to, target::lastSnapshotSlot);
+    }
+
+    @Override
+    public byte[] readSnapshot(int slot, long offset, int maxBytes) throws RemoteException {
+      return network.call(from, to, () -> target.readSnapshot(slot, offset, maxBytes));
+    }
+
+    @Override
+    public List<LogEntry> chosenSince(int fromSlot, int maxEntries) throws RemoteException {
+      return network.call(from, to, () -> target.chosenSince(fromSlot, maxEntries));
+    }
+
+    @Override
+    public OperationResult propose(int proposalId, Object proposalValue) throws RemoteException {
+      return network.call(from, to, () -> target.propose(proposalId, proposalValue));
+    }
+
+    @Override
+    public OperationResult submit(Object proposalValue) throws RemoteException {
+      return network.call(from, to, () -> target.submit(proposalValue));
+    }
+  }
+}
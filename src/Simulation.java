@@ -0,0 +1,317 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Simulation runs a cluster of replicas in one JVM over a {@link SimulatedNetwork}, drives it
+ * with concurrent clients while a schedule of partitions and pauses plays out, and then checks
+ * the history the clients saw with the {@link LinearizabilityChecker}.
+ *
+ * <p>Everything random about a run comes from its seed: the fault schedule, the operations each
+ * client sends and to which replica, the latency and loss of every message on every link, and the
+ * simulated acceptor failures. Two runs with the same seed thus face the same faults at the same
+ * offsets and the same network, which makes it possible to compare protocol changes under
+ * identical conditions and to replay a run that broke linearizability. The replicas keep their
+ * own threads, so the interleaving of messages across links still varies between runs.
+ */
+public class Simulation {
+  private final long seed;
+  private final int numServers;
+  private final int clients;
+  private final long durationMillis;
+  private final boolean multiPaxos;
+  private final int keyCount;
+  private final SimulatedNetwork.LatencyModel latency;
+  private final String latencySpec;
+  private final double lossRate;
+  private final List<String> faultKinds;
+
+  private SimulatedNetwork network;
+  private Server[] servers;
+  private final LinearizabilityChecker checker = new LinearizabilityChecker();
+  private volatile boolean running = true;
+
+  /**
+   * A change to the network at a given offset from the start of the run.
+   */
+  private static class Fault {
+    final long atMillis;
+    final String description;
+    final Runnable action;
+
+    Fault(long atMillis, String description, Runnable action) {
+      this.atMillis = atMillis;
+      this.description = description;
+      this.action = action;
+    }
+  }
+
+  /**
+   * Constructor to create a Simulation.
+   * @param seed The seed every random choice of the run derives from.
+   * @param numServers The number of replicas.
+   * @param clients The number of concurrent clients.
+   * @param durationSeconds How long the clients send operations.
+   * @param multiPaxos True to run the replicas with a stable leader.
+   * @param keyCount The number of distinct keys, few enough that clients often collide.
+   * @param latencySpec The latency model of every link, as {@link SimulatedNetwork.LatencyModel#parse} reads it.
+   * @param lossRate The probability that a message is lost.
+   * @param faultKinds The faults to schedule: partition, pause, or none.
+   */
+  public Simulation(long seed, int numServers, int clients, int durationSeconds, boolean multiPaxos, int keyCount,
+                    String latencySpec, double lossRate, List<String> faultKinds) {
+    this.seed = seed;
+    this.numServers = numServers;
+    this.clients = clients;
+    this.durationMillis = durationSeconds * 1000L;
+    this.multiPaxos = multiPaxos;
+    this.keyCount = keyCount;
+    this.latencySpec = latencySpec;
+    this.latency = SimulatedNetwork.LatencyModel.parse(latencySpec);
+    this.lossRate = lossRate;
+    this.faultKinds = faultKinds;
+  }
+
+  /**
+   * Run the clients against the cluster under the fault schedule, then check the history.
+   * @return True if the history is linearizable.
+   * @throws InterruptedException If interrupted while waiting for the clients.
+   */
+  public boolean run() throws InterruptedException {
+    network = new SimulatedNetwork(numServers, seed, latency, lossRate);
+    servers = new Server[numServers];
+    for (int i = 0; i < numServers; i++) {
+      servers[i] = new Server(i, numServers, false, multiPaxos);
+      servers[i].setFaultSeed(seed + i);
+    }
+    for (int serverId = 0; serverId < numServers; serverId++) {
+      AcceptorInterface[] acceptors = new AcceptorInterface[numServers];
+      LearnerInterface[] learners = new LearnerInterface[numServers];
+      ProposerInterface[] proposers = new ProposerInterface[numServers];
+      for (int i = 0; i < numServers; i++) {
+        if (i != serverId) {
+          SimulatedNetwork.Link link = new SimulatedNetwork.Link(network, serverId, i, servers[i]);
+          acceptors[i] = link;
+          learners[i] = link;
+          proposers[i] = link;
+        }
+      }
+      servers[serverId].setAcceptors(acceptors);
+      servers[serverId].setLearners(learners);
+      servers[serverId].setProposers(proposers);
+    }
+
+    System.out.println(Utils.getCurrentTimestamp() + ", Simulating " + numServers + " servers" + (multiPaxos ? " with a stable leader" : "")
+        + ", " + clients + " clients over " + keyCount + " keys for " + durationMillis / 1000L + " s, latency " + latencySpec
+        + ", loss " + lossRate + ", faults " + faultKinds + ", seed " + seed);
+    List<Fault> schedule = faultSchedule(new SplittableRandom(seed));
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "simulation-faults");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long start = System.nanoTime();
+    for (Fault fault : schedule) {
+      scheduler.schedule(() -> {
+        fault.action.run();
+        System.out.println(Utils.getCurrentTimestamp() + ", +" + fault.atMillis + " ms " + fault.description);
+      }, fault.atMillis, TimeUnit.MILLISECONDS);
+    }
+
+    ClientSession[] sessions = new ClientSession[clients];
+    Thread[] threads = new Thread[clients];
+    for (int i = 0; i < clients; i++) {
+      sessions[i] = new ClientSession(i, new SplittableRandom(seed * 0x9E3779B97F4A7C15L + i + 1));
+      threads[i] = new Thread(sessions[i]::run, "simulation-client-" + i);
+      threads[i].start();
+    }
+    Thread.sleep(durationMillis);
+    running = false;
+    scheduler.shutdownNow();
+    // Repair the network so operations still in flight can finish
+    network.heal();
+    for (int i = 0; i < numServers; i++) {
+      network.resume(i);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    report(sessions, elapsedNanos);
+    return checkHistory();
+  }
+
+  /**
+   * Lay out the faults of the run: one at a time, each lasting a while, with quiet periods in between.
+   */
+  private List<Fault> faultSchedule(SplittableRandom random) {
+    List<Fault> schedule = new ArrayList<>();
+    if (faultKinds.isEmpty()) {
+      return schedule;
+    }
+    long at = 200L + random.nextLong(800L);
+    while (at < durationMillis) {
+      String kind = faultKinds.get(random.nextInt(faultKinds.size()));
+      long length = 200L + random.nextLong(1300L);
+      if (kind.equals("partition")) {
+        // Cut off a minority, which may or may not hold the leader
+        List<Integer> side = new ArrayList<>();
+        int size = 1 + random.nextInt(Math.max(1, (numServers - 1) / 2));
+        while (side.size() < size) {
+          int serverId = random.nextInt(numServers);
+          if (!side.contains(serverId)) {
+            side.add(serverId);
+          }
+        }
+        side.sort(Comparator.naturalOrder());
+        schedule.add(new Fault(at, "partition " + side + " from the others", () -> network.partition(side)));
+        schedule.add(new Fault(at + length, "heal partition", network::heal));
+      } else if (kind.equals("pause")) {
+        int serverId = random.nextInt(numServers);
+        schedule.add(new Fault(at, "pause server " + serverId, () -> network.pause(serverId)));
+        schedule.add(new Fault(at + length, "resume server " + serverId, () -> network.resume(serverId)));
+      } else {
+        throw new IllegalArgumentException("Unknown fault: " + kind);
+      }
+      at += length + 300L + random.nextLong(1200L);
+    }
+    return schedule;
+  }
+
+  private void report(ClientSession[] finished, long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    long totalOperations = 0L;
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-8s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+        "op", "count", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+    for (LoadGenerator.OperationType type : LoadGenerator.OperationType.values()) {
+      LatencyHistogram latencies = new LatencyHistogram();
+      long errors = 0L;
+      for (ClientSession session : finished) {
+        latencies.add(session.latencies[type.ordinal()]);
+        errors += session.errors[type.ordinal()];
+      }
+      totalOperations += latencies.getTotalCount();
+      report.append(String.format("%-8s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+          type, latencies.getTotalCount(), errors, latencies.getTotalCount() / seconds, latencies.getMean() / 1e6,
+          latencies.getValueAtPercentile(50.0) / 1e6, latencies.getValueAtPercentile(99.0) / 1e6,
+          latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMax() / 1e6));
+    }
+    System.out.println(Utils.getCurrentTimestamp() + ", " + totalOperations + " operations in " + String.format("%.1f", seconds) + " s, "
+        + String.format("%.1f", totalOperations / seconds) + " ops/s\n" + report);
+  }
+
+  private boolean checkHistory() {
+    Map<String, LinearizabilityChecker.Verdict> verdicts = checker.check(LinearizabilityChecker.DEFAULT_STEP_BUDGET);
+    boolean linearizable = true;
+    int unknown = 0;
+    for (Map.Entry<String, LinearizabilityChecker.Verdict> entry : verdicts.entrySet()) {
+      if (entry.getValue() == LinearizabilityChecker.Verdict.VIOLATION) {
+        linearizable = false;
+        System.out.println(Utils.getCurrentTimestamp() + ", Key " + entry.getKey() + " is not linearizable:");
+        for (LinearizabilityChecker.Operation operation : checker.historyOf(entry.getKey())) {
+          System.out.println("  " + operation);
+        }
+      } else if (entry.getValue() == LinearizabilityChecker.Verdict.UNKNOWN) {
+        unknown++;
+      }
+    }
+    System.out.println(Utils.getCurrentTimestamp() + ", " + checker.size() + " operations on " + verdicts.size() + " keys: "
+        + (linearizable ? "linearizable" : "NOT linearizable")
+        + (unknown > 0 ? ", " + unknown + " keys too costly to check" : "") + ". Replay with seed " + seed);
+    return linearizable;
+  }
+
+  /**
+   * One client, sending operations to random replicas one after the other. Its choices all come
+   * from its own random generator, so they are the same on every run with the same seed.
+   */
+  private class ClientSession {
+    private final int index;
+    private final SplittableRandom random;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[LoadGenerator.OperationType.values().length];
+    private final long[] errors = new long[LoadGenerator.OperationType.values().length];
+
+    ClientSession(int index, SplittableRandom random) {
+      this.index = index;
+      this.random = random;
+      for (int i = 0; i < latencies.length; i++) {
+        latencies[i] = new LatencyHistogram();
+      }
+    }
+
+    void run() {
+      int sequence = 0;
+      while (running) {
+        int roll = random.nextInt(100);
+        LoadGenerator.OperationType type = roll < 50 ? LoadGenerator.OperationType.GET
+            : roll < 80 ? LoadGenerator.OperationType.PUT : LoadGenerator.OperationType.DELETE;
+        String key = "key" + random.nextInt(keyCount);
+        // Every written value is unique, so a read tells which write it saw
+        String value = type == LoadGenerator.OperationType.PUT ? "c" + index + "-" + sequence++ : null;
+        int target = random.nextInt(numServers);
+        long thinkMillis = random.nextInt(3);
+
+        LinearizabilityChecker.Operation operation = checker.invoke(index, type.name(), key, value);
+        long start = System.nanoTime();
+        OperationResult result = null;
+        try {
+          result = network.call(SimulatedNetwork.CLIENT, target, () -> execute(servers[target], type, key, value));
+        } catch (RemoteException e) {
+          // Whether it took effect is unknown, the checker allows for both
+        }
+        latencies[type.ordinal()].record(System.nanoTime() - start);
+        checker.complete(operation, result);
+        if (result == null || result.getStatus().isError()) {
+          errors[type.ordinal()]++;
+        }
+        try {
+          Thread.sleep(thinkMillis);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static OperationResult execute(Server server, LoadGenerator.OperationType type, String key, String value) throws RemoteException {
+    switch (type) {
+      case GET:
+        return server.get(key);
+      case PUT:
+        return server.put(key, value);
+      default:
+        return server.delete(key);
+    }
+  }
+
+  /**
+   * Run one simulation and exit with status 1 if its history is not linearizable.
+   * @param args [seed] [seconds] [servers] [clients] [true/false for multi-paxos leader]
+   * @throws InterruptedException If interrupted while running.
+   */
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length > 5) {
+      System.err.println("Usage: java Simulation [seed] [seconds] [servers] [clients] [true/false for multi-paxos leader]");
+      System.exit(1);
+    }
+    long seed = args.length >= 1 ? Long.parseLong(args[0]) : new SplittableRandom().nextLong();
+    int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+    int numServers = args.length >= 3 ? Integer.parseInt(args[2]) : 5;
+    int clients = args.length >= 4 ? Integer.parseInt(args[3]) : 8;
+    boolean multiPaxos = args.length >= 5 && args[4].equalsIgnoreCase("true");
+    String faults = System.getProperty("paxos.sim.faults", "partition,pause");
+    List<String> faultKinds = faults.equalsIgnoreCase("none") ? List.of() : List.of(faults.toLowerCase().split(","));
+    Simulation simulation = new Simulation(seed, numServers, clients, seconds, multiPaxos,
+        Integer.getInteger("paxos.sim.keys", 5), System.getProperty("paxos.sim.latency", "uniform:1:5"),
+        Double.parseDouble(System.getProperty("paxos.sim.loss", "0.01")), faultKinds);
+    boolean linearizable = simulation.run();
+    System.exit(linearizable ? 0 : 1);
+  }
+}
@@ -0,0 +1,237 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The SnapshotStore writes and reads snapshots of the key-value store, each covering every log slot
+ * up to and including its snapshot slot. Only the newest snapshot is kept.
+ *
+ * <p>A snapshot is written while writes keep being applied. The learner hands the writer a
+ * point-in-time view of the storage engine taken at the snapshot slot, so the file holds exactly the
+ * state at that slot.
+ *
+ * <p>File format: {@code [int magic][int slot]}, the group configuration at the slot as
+ * {@code [int phase2Quorum][int memberCount][int member]...}, then
+ * {@code [int keyLength][key][int valueLength][value][long version]} entries in UTF-8, terminated by
+ * a key length of -1, then {@code [int crc32]} of every byte before it. A snapshot that is cut short
+ * or fails its checksum is rejected as a whole.
+ */
+public class SnapshotStore {
+  private static final int MAGIC = 0x50415843; // "PAXC"
+  private static final String SUFFIX = ".snap";
+
+  private final Path directory;
+
+  /**
+   * Constructor to create a SnapshotStore.
+   * @param directory The directory holding the snapshot files.
+   * @throws IOException If the directory cannot be created.
+   */
+  public SnapshotStore(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * @return The slot covered by the newest snapshot, or -1 if there is none.
+   * @throws IOException If the directory cannot be listed.
+   */
+  public int latestSlot() throws IOException {
+    List<Path> snapshots = listSnapshots();
+    return snapshots.isEmpty() ? -1 : slotOf(snapshots.get(snapshots.size() - 1));
+  }
+
+  /**
+   * Stream the state at a slot to disk and make it the newest snapshot.
+   * @param slot The last slot included in the snapshot.
+   * @param state The key-value store as it was at the slot.
+   * @param configuration The group configuration as it was at the slot.
+   * @throws IOException If the snapshot cannot be written.
+   */
+  public void write(int slot, StorageEngine.Snapshot state, Configuration configuration) throws IOException {
+    Path temporary = directory.resolve("snapshot-" + slot + ".tmp");
+    CRC32 crc = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(slot);
+      out.writeInt(configuration.phaseTwoQuorum);
+      out.writeInt(configuration.members.length);
+      for (int member : configuration.members) {
+        out.writeInt(member);
+      }
+      state.forEach((key, value, version) -> writeEntry(out, key, value, version));
+      out.writeInt(-1);
+      out.writeInt((int) crc.getValue());
+    }
+    publish(temporary, slot);
+  }
+
+  /**
+   * Load the newest snapshot into a storage engine.
+   * @param into The engine to fill.
+   * @param configuration Receives the configuration of the snapshot, once the whole snapshot is loaded.
+   * @return The slot covered by the snapshot, or -1 if there is none.
+   * @throws IOException If the snapshot cannot be read or is corrupt.
+   */
+  public int loadLatest(StorageEngine into, Consumer<Configuration> configuration) throws IOException {
+    int slot = latestSlot();
+    if (slot >= 0) {
+      configuration.accept(load(pathFor(slot), into));
+    }
+    return slot;
+  }
+
+  /**
+   * Read part of a snapshot file, used to stream it to a lagging replica.
+   * @param slot The snapshot slot.
+   * @param offset The byte offset to read from.
+   * @param maxBytes The most bytes to return.
+   * @return The bytes read, empty at the end of the file.
+   * @throws IOException If the snapshot no longer exists or cannot be read.
+   */
+  public byte[] readChunk(int slot, long offset, int maxBytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(pathFor(slot), StandardOpenOption.READ)) {
+      long length = Math.max(0L, Math.min(maxBytes, channel.size() - offset));
+      ByteBuffer chunk = ByteBuffer.allocate((int) length);
+      while (chunk.hasRemaining() && channel.read(chunk, offset + chunk.position()) >= 0) {
+        // Keep reading until the chunk is full
+      }
+      return chunk.array();
+    }
+  }
+
+  /**
+   * Open a temporary file to receive a snapshot streamed from another replica.
+   * @param slot The snapshot slot.
+   * @return The stream to write the received chunks to.
+   * @throws IOException If the file cannot be created.
+   */
+  public OutputStream beginInstall(int slot) throws IOException {
+    return new BufferedOutputStream(Files.newOutputStream(directory.resolve("snapshot-" + slot + ".tmp")), 1 << 16);
+  }
+
+  /**
+   * Check a fully received snapshot and load it, without making it the newest one yet.
+   * @param slot The snapshot slot.
+   * @param into A fresh engine to fill, which the caller drops if the snapshot turns out corrupt.
+   * @return The configuration of the snapshot.
+   * @throws IOException If the snapshot is corrupt, in which case it is discarded.
+   */
+  public Configuration loadInstall(int slot, StorageEngine into) throws IOException {
+    Path temporary = directory.resolve("snapshot-" + slot + ".tmp");
+    try {
+      return load(temporary, into);
+    } catch (IOException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+  }
+
+  /**
+   * Make a snapshot checked by {@link #loadInstall(int, StorageEngine)} the newest one.
+   * @param slot The snapshot slot.
+   * @throws IOException If the snapshot cannot be moved into place.
+   */
+  public void finishInstall(int slot) throws IOException {
+    publish(directory.resolve("snapshot-" + slot + ".tmp"), slot);
+  }
+
+  private void publish(Path temporary, int slot) throws IOException {
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(temporary, pathFor(slot), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    for (Path older : listSnapshots()) {
+      if (slotOf(older) < slot) {
+        Files.deleteIfExists(older);
+      }
+    }
+  }
+
+  private static Configuration load(Path path, StorageEngine into) throws IOException {
+    CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16), new CRC32());
+    try (DataInputStream in = new DataInputStream(checked)) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a snapshot: " + path);
+      }
+      in.readInt(); // The slot, already known from the file name
+      int phaseTwoQuorum = in.readInt();
+      int memberCount = in.readInt();
+      if (memberCount < 0) {
+        throw new IOException("Invalid configuration in " + path + ": " + memberCount + " members");
+      }
+      int[] members = new int[memberCount];
+      for (int i = 0; i < members.length; i++) {
+        members[i] = in.readInt();
+      }
+      Configuration configuration;
+      try {
+        configuration = new Configuration(members, phaseTwoQuorum);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid configuration in " + path + ": " + e.getMessage(), e);
+      }
+      byte[] key;
+      while ((key = readBytes(in)) != null) {
+        String value = new String(readBytes(in), StandardCharsets.UTF_8);
+        into.put(new String(key, StandardCharsets.UTF_8), value, in.readLong());
+      }
+      int expected = (int) checked.getChecksum().getValue();
+      if (in.readInt() != expected || in.read() >= 0) {
+        throw new IOException("Corrupt snapshot: " + path);
+      }
+      return configuration;
+    }
+  }
+
+  private static void writeEntry(DataOutputStream out, String key, String value, long version) throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(keyBytes.length);
+    out.write(keyBytes);
+    out.writeInt(valueBytes.length);
+    out.write(valueBytes);
+    out.writeLong(version);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private Path pathFor(int slot) {
+    return directory.resolve(String.format("snapshot-%010d%s", slot, SUFFIX));
+  }
+
+  private List<Path> listSnapshots() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+    }
+  }
+
+  private static int slotOf(Path path) {
+    String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring("snapshot-".length(), name.length() - SUFFIX.length()));
+  }
+}
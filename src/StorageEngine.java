@@ -0,0 +1,86 @@
+import java.io.IOException;
+
+/**
+ * The storage engine holds the key-value store behind the state machine. The learner is its only
+ * writer and applies operations one at a time, so implementations need not be thread safe, except
+ * that {@link #size()} may be read from any thread. Other threads read the store through snapshots.
+ * <p>
+ * The engine is picked with {@code -Dpaxos.storage}: {@code compact} (default) for
+ * {@link CompactStorageEngine}, or {@code map} for {@link MapStorageEngine}.
+ */
+public interface StorageEngine {
+
+  /**
+   * @return A new, empty engine of the configured kind.
+   */
+  static StorageEngine create() {
+    String kind = System.getProperty("paxos.storage", "compact").toLowerCase();
+    return switch (kind) {
+      case "compact" -> new CompactStorageEngine();
+      case "map" -> new MapStorageEngine();
+      default -> throw new IllegalArgumentException("Unknown storage engine: " + kind);
+    };
+  }
+
+  /**
+   * @param key The key.
+   * @return The value and version of the key, or null if it does not exist.
+   */
+  VersionedValue get(String key);
+
+  /**
+   * Set a key, whether or not it exists.
+   * @param key The key.
+   * @param value The value.
+   * @param version The version of the write.
+   */
+  void put(String key, String value, long version);
+
+  /**
+   * @param key The key.
+   * @return True if the key existed and was removed.
+   */
+  boolean remove(String key);
+
+  /**
+   * @return The number of keys. Safe to call from any thread.
+   */
+  int size();
+
+  /**
+   * Remove every key.
+   */
+  void clear();
+
+  /**
+   * @return A view of the store as it is now, unaffected by later writes and safe to read from
+   *     any thread.
+   */
+  Snapshot snapshot();
+
+  /**
+   * An immutable point-in-time view of the store.
+   */
+  interface Snapshot {
+
+    /**
+     * @return The number of keys in the view.
+     */
+    int size();
+
+    /**
+     * Visit every key of the view once, in no particular order.
+     * @param visitor Called for each key.
+     * @throws IOException If the visitor fails.
+     */
+    void forEach(EntryVisitor visitor) throws IOException;
+  }
+
+  /**
+   * Receives the entries of a snapshot.
+   */
+  @FunctionalInterface
+  interface EntryVisitor {
+    void visit(String key, String value, long version) throws IOException;
+  }
+}
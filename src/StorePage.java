@@ -0,0 +1,36 @@
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * One page of the key-value store in key order, returned by the debug dump. Pass
+ * {@link #getNextKey()} to the next call to continue after this page.
+ */
+public class StorePage implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private final Map<String, String> entries;
+  private final String nextKey;
+
+  /**
+   * Constructor to create a StorePage.
+   * @param entries The entries of the page, in key order.
+   * @param nextKey The last key of the page if more keys follow, null on the last page.
+   */
+  StorePage(Map<String, String> entries, String nextKey) {
+    this.entries = entries;
+    this.nextKey = nextKey;
+  }
+
+  /**
+   * @return The entries of the page, in key order.
+   */
+  public Map<String, String> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return The key to continue after, or null if this is the last page.
+   */
+  public String getNextKey() {
+    return nextKey;
+  }
+}
@@ -1,17 +1,81 @@
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Utility functions to avoid repeated code
  */
 public class Utils {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // The last formatted timestamp, replaced at most once per millisecond
+    private static volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(Long.MIN_VALUE, "");
+
     /**
      * Getting Current Timestamps
      * @return current timestamp
      */
     public static String getCurrentTimestamp() {
-        long currentTimeMillis = System.currentTimeMillis();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
-        return dateFormat.format(new Date(currentTimeMillis));
+        return formatTimestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * Format a wall clock time as a timestamp. Calls within the same millisecond share one string,
+     * so only the first of them pays for formatting.
+     * @param timeMillis The time in milliseconds since the epoch.
+     * @return The timestamp as HH:mm:ss.SSS.
+     */
+    public static String formatTimestamp(long timeMillis) {
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.timeMillis != timeMillis) {
+            cached = new CachedTimestamp(timeMillis, TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timeMillis)));
+            cachedTimestamp = cached;
+        }
+        return cached.text;
+    }
+
+    /**
+     * Create an executor that starts a thread per task, for requests that spend most of their time
+     * waiting on a quorum. On Java 21 and later the threads are virtual, so thousands of waiting
+     * requests cost a few kilobytes each instead of a platform thread stack; {@code
+     * -Dpaxos.virtualThreads=false} turns that off. Older JVMs get a cached pool of daemon threads.
+     * @param name The prefix of the thread names.
+     * @return The executor.
+     */
+    public static ExecutorService newRequestExecutor(String name) {
+        if (Boolean.parseBoolean(System.getProperty("paxos.virtualThreads", "true"))) {
+            try {
+                // Looked up by reflection so the sources still build for Java 17
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+                virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, name + "-", 0L);
+                ThreadFactory factory = (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                // No virtual threads on this JVM
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A formatted timestamp with the millisecond it was formatted for, published as one object so
+     * readers never see the text of one millisecond paired with another.
+     */
+    private static final class CachedTimestamp {
+        final long timeMillis;
+        final String text;
+
+        CachedTimestamp(long timeMillis, String text) {
+            this.timeMillis = timeMillis;
+            this.text = text;
+        }
     }
-}
\ No newline at end of file
+}
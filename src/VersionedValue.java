@@ -0,0 +1,29 @@
+/**
+ * A value in the key-value store together with its version. The version of a key changes on every
+ * write to it and only ever grows: it is the log slot of the write in the upper 32 bits and the
+ * position of the write within that slot's batch in the lower 32 bits. Every replica applies the
+ * same writes at the same slots, so a key has the same version on every replica.
+ */
+public final class VersionedValue {
+  final String value;
+  final long version;
+
+  /**
+   * Constructor to create a VersionedValue.
+   * @param value The value.
+   * @param version The version of the write that stored the value.
+   */
+  VersionedValue(String value, long version) {
+    this.value = value;
+    this.version = version;
+  }
+
+  /**
+   * @param slot The log slot of a write.
+   * @param position The position of the write within the batch chosen for the slot.
+   * @return The version given to a write at that slot and position.
+   */
+  static long versionOf(int slot, int position) {
+    return ((long) slot << 32) | (position & 0xFFFFFFFFL);
+  }
+}
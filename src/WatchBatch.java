@@ -0,0 +1,116 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The changes a watch returns in one call, with the cursor to pass to the next call. The cursor
+ * holds one version per Paxos group: the changes of a group arrive in log order, and the cursor
+ * entry of a group is the version up to which that group's changes have been delivered. Passing
+ * a saved cursor resumes the stream where it stopped, on any server, as long as the server still
+ * retains the changes after it.
+ */
+public class WatchBatch implements Serializable {
+  private static final long serialVersionUID = 1L;
+  /** A cursor entry that starts with the changes applied after the first call. */
+  public static final long NOW = Long.MIN_VALUE;
+
+  private final List<Change> changes;
+  private final long[] cursor;
+  private final boolean compacted;
+
+  /**
+   * A key written or deleted by an applied operation.
+   */
+  public static class Change implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String key;
+    private final String value; // Null for a delete
+    private final long version;
+
+    /**
+     * Constructor to create a Change.
+     * @param key The key.
+     * @param value The new value, null if the key was deleted.
+     * @param version The version of the write or delete.
+     */
+    Change(String key, String value, long version) {
+      this.key = key;
+      this.value = value;
+      this.version = version;
+    }
+
+    /**
+     * @return The key.
+     */
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * @return The new value, or null if the key was deleted.
+     */
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * @return The version of the write or delete.
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * @return True if the key was deleted.
+     */
+    public boolean isDelete() {
+      return value == null;
+    }
+
+    @Override
+    public String toString() {
+      return (isDelete() ? "DELETE " + key : "PUT " + key + " = " + value) + " version=" + version;
+    }
+  }
+
+  /**
+   * Constructor to create a WatchBatch.
+   * @param changes The changes, in log order within each group.
+   * @param cursor The version each group's changes were delivered up to.
+   * @param compacted True if the changes after the given cursor of some group were no longer retained.
+   */
+  WatchBatch(List<Change> changes, long[] cursor, boolean compacted) {
+    this.changes = changes;
+    this.cursor = cursor;
+    this.compacted = compacted;
+  }
+
+  /**
+   * @return The changes, in log order within each group.
+   */
+  public List<Change> getChanges() {
+    return changes;
+  }
+
+  /**
+   * @return The cursor to pass to the next call.
+   */
+  public long[] getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Tell whether changes were missed because the watcher fell further behind than the server
+   * retains. The cursor then skips to the newest change, and the watcher has to read the keys it
+   * cares about again before relying on the stream.
+   * @return True if changes were missed.
+   */
+  public boolean isCompacted() {
+    return compacted;
+  }
+
+  @Override
+  public String toString() {
+    return changes.size() + " changes" + (compacted ? ", some missed" : "") + ", cursor " + Arrays.toString(cursor);
+  }
+}
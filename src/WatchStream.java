@@ -0,0 +1,62 @@
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * The WatchStream follows the changes to a key or a key prefix on one server, one long poll at a
+ * time. Changes are only fetched when the consumer asks for the next ones, so a slow consumer
+ * slows the stream down instead of piling changes up anywhere. After a disconnect, a stream
+ * created with the cursor of the old one, against the same or another server, carries on where
+ * the old one stopped.
+ */
+public class WatchStream {
+  public static final int DEFAULT_MAX_CHANGES = 1000;
+
+  private final KVStoreInterface server;
+  private final String prefix;
+  private long[] cursor;
+  private boolean missedChanges;
+
+  /**
+   * Constructor to create a WatchStream.
+   * @param server The server to read the changes from.
+   * @param prefix The key prefix to watch, a whole key to watch one key, empty for every key.
+   * @param cursor The cursor to resume from, null to start with the changes applied from now on.
+   */
+  public WatchStream(KVStoreInterface server, String prefix, long[] cursor) {
+    this.server = server;
+    this.prefix = prefix;
+    this.cursor = cursor;
+  }
+
+  /**
+   * Wait for the next changes.
+   * @param timeoutMillis How long to wait for a change.
+   * @return The next changes, in log order within each Paxos group, empty if none came in time.
+   * @throws RemoteException If the server cannot be reached, in which case the stream can be
+   *     resumed elsewhere from {@link #getCursor()}.
+   */
+  public List<WatchBatch.Change> next(long timeoutMillis) throws RemoteException {
+    WatchBatch batch = server.watch(prefix, cursor, DEFAULT_MAX_CHANGES, timeoutMillis);
+    cursor = batch.getCursor();
+    missedChanges |= batch.isCompacted();
+    return batch.getChanges();
+  }
+
+  /**
+   * @return The cursor to resume from after the changes returned so far.
+   */
+  public long[] getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Tell whether the stream fell so far behind that the server dropped changes before they were
+   * read. The keys watched then have to be read again, and the flag is cleared.
+   * @return True if changes were missed since the last call.
+   */
+  public boolean checkMissedChanges() {
+    boolean missed = missedChanges;
+    missedChanges = false;
+    return missed;
+  }
+}
@@ -0,0 +1,326 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of the values exchanged between replicas: operations, batches, configurations
+ * and log entries.
+ * It replaces Java serialization on the NIO transport with a compact, reflection-free format.
+ */
+public final class WireCodec {
+  private static final byte NULL = 0;
+  private static final byte OPERATION = 1;
+  private static final byte BATCH = 2;
+  private static final byte MULTI = 3;
+  private static final byte CONFIGURATION = 4;
+
+  private WireCodec() {
+  }
+
+  /**
+   * Write a proposal value.
+   * @param out The output to write to.
+   * @param value An operation, a multi-key operation, a batch, a configuration or null.
+   * @throws IOException If writing fails or the value has an unknown type.
+   */
+  public static void writeValue(DataOutput out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof Server.Operation operation) {
+      out.writeByte(OPERATION);
+      writeString(out, operation.type);
+      writeString(out, operation.key);
+      writeString(out, operation.value);
+      out.writeLong(operation.id);
+    } else if (value instanceof Server.MultiOperation multi) {
+      out.writeByte(MULTI);
+      writeString(out, multi.type);
+      out.writeInt(multi.parts.size());
+      for (Server.Operation part : multi.parts) {
+        writeValue(out, part);
+      }
+      out.writeBoolean(multi.expectedVersions != null);
+      if (multi.expectedVersions != null) {
+        for (long expectedVersion : multi.expectedVersions) {
+          out.writeLong(expectedVersion);
+        }
+      }
+    } else if (value instanceof Configuration configuration) {
+      out.writeByte(CONFIGURATION);
+      out.writeInt(configuration.phaseTwoQuorum);
+      out.writeInt(configuration.members.length);
+      for (int member : configuration.members) {
+        out.writeInt(member);
+      }
+    } else if (value instanceof Batch batch) {
+      out.writeByte(BATCH);
+      out.writeInt(batch.operations.size());
+      for (Object operation : batch.operations) {
+        writeValue(out, operation);
+      }
+    } else {
+      throw new IOException("Cannot encode value of type " + value.getClass().getName());
+    }
+  }
+
+  /**
+   * Read a proposal value written by {@link #writeValue(DataOutput, Object)}.
+   * @param in The input to read from.
+   * @return The value.
+   * @throws IOException If reading fails or the data is malformed.
+   */
+  public static Object readValue(DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case OPERATION:
+        return new Server.Operation(readString(in), readString(in), readString(in), in.readLong());
+      case BATCH:
+        int size = in.readInt();
+        List<Object> operations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          operations.add(readValue(in));
+        }
+        return new Batch(operations);
+      case MULTI:
+        String type = readString(in);
+        int count = in.readInt();
+        List<Server.Operation> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          parts.add((Server.Operation) readValue(in));
+        }
+        long[] expectedVersions = null;
+        if (in.readBoolean()) {
+          expectedVersions = new long[count];
+          for (int i = 0; i < count; i++) {
+            expectedVersions[i] = in.readLong();
+          }
+        }
+        return new Server.MultiOperation(type, parts, expectedVersions);
+      case CONFIGURATION:
+        int phaseTwoQuorum = in.readInt();
+        int memberCount = in.readInt();
+        if (memberCount < 0) {
+          throw new IOException("Invalid configuration: " + memberCount + " members");
+        }
+        int[] members = new int[memberCount];
+        for (int i = 0; i < members.length; i++) {
+          members[i] = in.readInt();
+        }
+        try {
+          return new Configuration(members, phaseTwoQuorum);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid configuration: " + e.getMessage(), e);
+        }
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * Write a list of log entries, null allowed.
+   * @throws IOException If writing fails.
+   */
+  public static void writeEntries(DataOutput out, List<LogEntry> entries) throws IOException {
+    if (entries == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(entries.size());
+    for (LogEntry entry : entries) {
+      out.writeInt(entry.slot);
+      out.writeInt(entry.proposalId);
+      writeValue(out, entry.value);
+    }
+  }
+
+  /**
+   * Read a list of log entries written by {@link #writeEntries(DataOutput, List)}.
+   * @throws IOException If reading fails.
+   */
+  public static List<LogEntry> readEntries(DataInput in) throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      return null;
+    }
+    List<LogEntry> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new LogEntry(in.readInt(), in.readInt(), readValue(in)));
+    }
+    return entries;
+  }
+
+  /**
+   * Write a UTF-8 string prefixed by its byte length, -1 for null.
+   * @throws IOException If writing fails.
+   */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by {@link #writeString(DataOutput, String)}.
+   * @throws IOException If reading fails.
+   */
+  public static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write the result of a client operation.
+   * @throws IOException If writing fails.
+   */
+  public static void writeResult(DataOutput out, OperationResult result) throws IOException {
+    out.writeByte(result.getStatus().ordinal());
+    writeString(out, result.getValue());
+    out.writeInt(result.getSlot());
+    writeString(out, result.getMessage());
+    out.writeLong(result.getVersion());
+    List<OperationResult> results = result.getResults();
+    out.writeInt(results == null ? -1 : results.size());
+    if (results != null) {
+      for (OperationResult part : results) {
+        writeResult(out, part);
+      }
+    }
+  }
+
+  /**
+   * Read a result written by {@link #writeResult(DataOutput, OperationResult)}.
+   * @throws IOException If reading fails.
+   */
+  public static OperationResult readResult(DataInput in) throws IOException {
+    OperationResult.Status status = OperationResult.Status.values()[in.readByte()];
+    String value = readString(in);
+    int slot = in.readInt();
+    String message = readString(in);
+    long version = in.readLong();
+    int count = in.readInt();
+    if (count >= 0) {
+      List<OperationResult> results = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        results.add(readResult(in));
+      }
+      return OperationResult.multi(slot, results);
+    }
+    if (message != null) {
+      return slot >= 0 ? OperationResult.rejected(status, slot, message) : OperationResult.failed(status, message);
+    }
+    return OperationResult.applied(status, value, slot, version);
+  }
+
+  /**
+   * Write the per-key results of a multi-key client operation.
+   * @throws IOException If writing fails.
+   */
+  public static void writeResults(DataOutput out, Map<String, OperationResult> results) throws IOException {
+    out.writeInt(results.size());
+    for (Map.Entry<String, OperationResult> entry : results.entrySet()) {
+      writeString(out, entry.getKey());
+      writeResult(out, entry.getValue());
+    }
+  }
+
+  /**
+   * Read results written by {@link #writeResults(DataOutput, Map)}, in the order they were written.
+   * @throws IOException If reading fails.
+   */
+  public static Map<String, OperationResult> readResults(DataInput in) throws IOException {
+    int size = in.readInt();
+    Map<String, OperationResult> results = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      results.put(readString(in), readResult(in));
+    }
+    return results;
+  }
+
+  /**
+   * Write a list of keys.
+   * @throws IOException If writing fails.
+   */
+  public static void writeKeys(DataOutput out, List<String> keys) throws IOException {
+    out.writeInt(keys.size());
+    for (String key : keys) {
+      writeString(out, key);
+    }
+  }
+
+  /**
+   * Read keys written by {@link #writeKeys(DataOutput, List)}.
+   * @throws IOException If reading fails.
+   */
+  public static List<String> readKeys(DataInput in) throws IOException {
+    int size = in.readInt();
+    List<String> keys = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      keys.add(readString(in));
+    }
+    return keys;
+  }
+
+  /**
+   * Write the operations of a write batch with their expected versions.
+   * @throws IOException If writing fails.
+   */
+  public static void writeBatch(DataOutput out, WriteBatch batch) throws IOException {
+    out.writeInt(batch.operations.size());
+    for (int i = 0; i < batch.operations.size(); i++) {
+      Server.Operation operation = batch.operations.get(i);
+      writeString(out, operation.type);
+      writeString(out, operation.key);
+      writeString(out, operation.value);
+      out.writeLong(batch.expectedVersions.get(i));
+    }
+  }
+
+  /**
+   * Read a write batch written by {@link #writeBatch(DataOutput, WriteBatch)}.
+   * @throws IOException If reading fails.
+   */
+  public static WriteBatch readBatch(DataInput in) throws IOException {
+    int size = in.readInt();
+    WriteBatch batch = new WriteBatch();
+    for (int i = 0; i < size; i++) {
+      batch.operations.add(new Server.Operation(readString(in), readString(in), readString(in)));
+      batch.expectedVersions.add(in.readLong());
+    }
+    return batch;
+  }
+
+  /**
+   * Write a byte array prefixed by its length.
+   * @throws IOException If writing fails.
+   */
+  public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a byte array written by {@link #writeBytes(DataOutput, byte[])}.
+   * @throws IOException If reading fails.
+   */
+  public static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,325 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The WriteAheadLog persists acceptor promises, accepted values and decided slots so that a
+ * restarted server keeps the promises it made. Records are appended to segment files through a
+ * FileChannel. Callers first append a record and then wait for it to be synced. Concurrent callers
+ * share fsyncs: whoever syncs first forces every record appended so far, and callers whose record
+ * is already covered return right away. A segment that is rotated out stays open until a sync has
+ * forced it, and only a sync closes it, so a sync never finds a channel closed under it.
+ *
+ * <p>Each record is {@code [int length][int crc32][byte type][int slot][int proposalId][value bytes]},
+ * the value encoded by {@link WireCodec}, the same way it travels between replicas, so the log
+ * does not depend on the Java serialization of the value classes.
+ * Replay stops at the first incomplete or corrupt record, which is what a crash mid-write leaves.
+ */
+public class WriteAheadLog implements Closeable {
+  public static final byte PROMISE = 1;
+  public static final byte ACCEPT = 2;
+  public static final byte DECIDE = 3;
+  private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+  private static final int HEADER_BYTES = 8;
+
+  private final Path directory;
+  private final Object writeLock = new Object();
+  private final Object syncLock = new Object();
+  private final Object checkpointLock = new Object(); // Orders checkpoint writes, never held with the others
+  private int lastCheckpoint = -1; // Index of the newest checkpoint written, guarded by checkpointLock
+  private FileChannel segment;
+  private final List<FileChannel> retired = new ArrayList<>(); // Rotated out but not forced yet, guarded by writeLock
+  private int segmentIndex;
+  private long appended = 0L; // Records appended, guarded by writeLock
+  private volatile long synced = 0L; // Records known to be on disk, guarded by syncLock
+
+  /**
+   * Receives the records of the log during replay, oldest first.
+   */
+  public interface Replayer {
+    void promise(int proposalId);
+
+    void accept(int slot, int proposalId, Object value);
+
+    void decide(int slot, Object value);
+  }
+
+  /**
+   * Constructor to open (or create) the log in a directory. New records go to a fresh segment.
+   * @param directory The directory holding this server's segments.
+   * @throws IOException If the directory cannot be created or opened.
+   */
+  public WriteAheadLog(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    List<Path> segments = listSegments();
+    this.segmentIndex = segments.isEmpty() ? 0 : segmentIndexOf(segments.get(segments.size() - 1)) + 1;
+    openSegment();
+  }
+
+  /**
+   * Append a promise for a proposal ID.
+   * @return The position to pass to {@link #sync(long)}.
+   * @throws IOException If the record cannot be written.
+   */
+  public long logPromise(int proposalId) throws IOException {
+    return append(PROMISE, -1, proposalId, null);
+  }
+
+  /**
+   * Append a value accepted for a slot.
+   * @return The position to pass to {@link #sync(long)}.
+   * @throws IOException If the record cannot be written.
+   */
+  public long logAccept(int slot, int proposalId, Object value) throws IOException {
+    return append(ACCEPT, slot, proposalId, value);
+  }
+
+  /**
+   * Append the value chosen for a slot.
+   * @return The position to pass to {@link #sync(long)}.
+   * @throws IOException If the record cannot be written.
+   */
+  public long logDecide(int slot, Object value) throws IOException {
+    return append(DECIDE, slot, -1, value);
+  }
+
+  private long append(byte type, int slot, int proposalId, Object value) throws IOException {
+    ByteBuffer record = record(type, slot, proposalId, value);
+    synchronized (writeLock) {
+      if (segment.size() >= SEGMENT_BYTES) {
+        // The next sync forces the old segment along with the new one
+        retired.add(segment);
+        segmentIndex++;
+        openSegment();
+      }
+      write(segment, record);
+      return ++appended;
+    }
+  }
+
+  private static ByteBuffer record(byte type, int slot, int proposalId, Object value) throws IOException {
+    byte[] valueBytes = value == null ? new byte[0] : encode(value);
+    ByteBuffer body = ByteBuffer.allocate(9 + valueBytes.length);
+    body.put(type).putInt(slot).putInt(proposalId).put(valueBytes).flip();
+    CRC32 crc = new CRC32();
+    crc.update(body.duplicate());
+    ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.remaining());
+    record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body).flip();
+    return record;
+  }
+
+  private static void write(FileChannel channel, ByteBuffer record) throws IOException {
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+  }
+
+  /**
+   * Wait until the record at the given position, and every record before it, is on disk.
+   * @param position A position returned by one of the log methods.
+   * @throws IOException If the fsync fails.
+   */
+  public void sync(long position) throws IOException {
+    if (synced >= position) {
+      return;
+    }
+    synchronized (syncLock) {
+      if (synced >= position) {
+        // Another caller's fsync already covered this record
+        return;
+      }
+      long target;
+      FileChannel current;
+      List<FileChannel> earlier;
+      synchronized (writeLock) {
+        target = appended;
+        current = segment;
+        earlier = new ArrayList<>(retired);
+      }
+      for (FileChannel channel : earlier) {
+        channel.force(false);
+        synchronized (writeLock) {
+          retired.remove(channel);
+        }
+        channel.close();
+      }
+      // Rotation leaves this channel open, so it cannot be closed before the force completes
+      current.force(false);
+      synced = target;
+    }
+  }
+
+  /**
+   * Replay every complete record, oldest segment first.
+   * @param replayer Receives the records.
+   * @throws IOException If a segment cannot be read.
+   */
+  public void replay(Replayer replayer) throws IOException {
+    for (Path path : listSegments()) {
+      ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+      while (data.remaining() >= HEADER_BYTES) {
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (length < 9 || length > data.remaining()) {
+          break;
+        }
+        ByteBuffer body = data.slice();
+        body.limit(length);
+        data.position(data.position() + length);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        byte type = body.get();
+        int slot = body.getInt();
+        int proposalId = body.getInt();
+        byte[] valueBytes = new byte[body.remaining()];
+        body.get(valueBytes);
+        Object value = valueBytes.length == 0 ? null : decode(valueBytes);
+        switch (type) {
+          case PROMISE -> replayer.promise(proposalId);
+          case ACCEPT -> replayer.accept(slot, proposalId, value);
+          case DECIDE -> replayer.decide(slot, value);
+          default -> throw new IOException("Unknown record type " + type + " in " + path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Start replacing the existing segments with a checkpoint: records appended from now on go to a
+   * fresh segment that the checkpoint leaves alone. Only opens a file, so callers can hold the lock
+   * that keeps the checkpointed state still, and take the state to checkpoint right after.
+   * @return The checkpoint to pass to {@link #finishCheckpoint}.
+   * @throws IOException If the new segment cannot be opened.
+   */
+  public Checkpoint beginCheckpoint() throws IOException {
+    synchronized (writeLock) {
+      retired.add(segment);
+      // The checkpoint gets the index between the segments it replaces and the new one
+      int index = ++segmentIndex;
+      segmentIndex++;
+      openSegment();
+      return new Checkpoint(index);
+    }
+  }
+
+  /**
+   * Write a checkpoint of the state that is still needed, typically everything above the newest
+   * snapshot, then delete the segments before it. The checkpoint is written to a file of its own
+   * and synced before it takes its place, so appends and syncs carry on meanwhile, and replay sees
+   * it before the records appended after {@link #beginCheckpoint()}.
+   * @param checkpoint The checkpoint begun when the state was taken.
+   * @param promisedProposalId The highest proposal ID promised.
+   * @param accepted The accepted values still needed.
+   * @param decided The decided slots still needed.
+   * @throws IOException If the checkpoint cannot be written.
+   */
+  public void finishCheckpoint(Checkpoint checkpoint, int promisedProposalId, Collection<LogEntry> accepted,
+                               Map<Integer, Object> decided) throws IOException {
+    synchronized (checkpointLock) {
+      if (checkpoint.index < lastCheckpoint) {
+        // A newer checkpoint already replaced these segments
+        return;
+      }
+      Path temporary = directory.resolve(String.format("segment-%08d.tmp", checkpoint.index));
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        write(channel, record(PROMISE, -1, promisedProposalId, null));
+        for (LogEntry entry : accepted) {
+          write(channel, record(ACCEPT, entry.slot, entry.proposalId, entry.value));
+        }
+        for (Map.Entry<Integer, Object> entry : decided.entrySet()) {
+          write(channel, record(DECIDE, entry.getKey(), -1, entry.getValue()));
+        }
+        channel.force(false);
+      }
+      Files.move(temporary, segmentPath(checkpoint.index), StandardCopyOption.ATOMIC_MOVE);
+      lastCheckpoint = checkpoint.index;
+      for (Path older : listSegments()) {
+        if (segmentIndexOf(older) < checkpoint.index) {
+          Files.deleteIfExists(older);
+        }
+      }
+    }
+  }
+
+  /**
+   * A checkpoint begun by {@link #beginCheckpoint()}, holding the segment index reserved for it.
+   */
+  public static final class Checkpoint {
+    private final int index;
+
+    private Checkpoint(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * @return The directory holding this log's segments.
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (syncLock) {
+      synchronized (writeLock) {
+        for (FileChannel channel : retired) {
+          channel.force(false);
+          channel.close();
+        }
+        retired.clear();
+        segment.force(false);
+        segment.close();
+      }
+    }
+  }
+
+  private void openSegment() throws IOException {
+    segment = FileChannel.open(segmentPath(segmentIndex), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private Path segmentPath(int index) {
+    return directory.resolve(String.format("segment-%08d.wal", index));
+  }
+
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(".wal")).sorted().toList();
+    }
+  }
+
+  private static int segmentIndexOf(Path path) {
+    String name = path.getFileName().toString();
+    return Integer.parseInt(name.substring("segment-".length(), name.length() - ".wal".length()));
+  }
+
+  private static byte[] encode(Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WireCodec.writeValue(new DataOutputStream(bytes), value);
+    return bytes.toByteArray();
+  }
+
+  private static Object decode(byte[] valueBytes) throws IOException {
+    return WireCodec.readValue(new DataInputStream(new ByteArrayInputStream(valueBytes)));
+  }
+}
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of writes applied atomically: either every write of the batch takes effect at the same
+ * log slot, or none does. Each write, and each plain check, can require its key to have a given
+ * version, as returned in {@link OperationResult#getVersion()}, or
+ * {@link OperationResult#NO_VERSION} for a key that must not exist. Every condition is checked
+ * against the state before the batch. If one does not hold, nothing is written and the batch
+ * fails with {@link OperationResult.Status#CONFLICT}.
+ */
+public class WriteBatch implements Serializable {
+  private static final long serialVersionUID = 1L;
+  /** The expected version of a write that does not depend on the current version. */
+  public static final long ANY_VERSION = -2L;
+
+  final List<Server.Operation> operations = new ArrayList<>();
+  final List<Long> expectedVersions = new ArrayList<>();
+
+  /**
+   * Set a key, whether or not it exists.
+   * @param key The key.
+   * @param value The value.
+   * @param expectedVersion The version the key must have, or ANY_VERSION.
+   * @return This batch.
+   */
+  public WriteBatch put(String key, String value, long expectedVersion) {
+    return add(new Server.Operation("SET", key, value), expectedVersion);
+  }
+
+  /**
+   * Set a key unconditionally.
+   * @param key The key.
+   * @param value The value.
+   * @return This batch.
+   */
+  public WriteBatch put(String key, String value) {
+    return put(key, value, ANY_VERSION);
+  }
+
+  /**
+   * Delete a key if it exists.
+   * @param key The key.
+   * @param expectedVersion The version the key must have, or ANY_VERSION.
+   * @return This batch.
+   */
+  public WriteBatch delete(String key, long expectedVersion) {
+    return add(new Server.Operation("DELETE", key, null), expectedVersion);
+  }
+
+  /**
+   * Require a key to have a version without writing it.
+   * @param key The key.
+   * @param expectedVersion The version the key must have.
+   * @return This batch.
+   */
+  public WriteBatch check(String key, long expectedVersion) {
+    return add(new Server.Operation("CHECK", key, null), expectedVersion);
+  }
+
+  /**
+   * @return The keys of the batch, in the order they were added.
+   */
+  public List<String> keys() {
+    List<String> keys = new ArrayList<>(operations.size());
+    for (Server.Operation operation : operations) {
+      keys.add(operation.key);
+    }
+    return keys;
+  }
+
+  private WriteBatch add(Server.Operation operation, long expectedVersion) {
+    operations.add(operation);
+    expectedVersions.add(expectedVersion);
+    return this;
+  }
+}
@@ -0,0 +1,70 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks item indexes following a Zipfian distribution, so a few items are picked far more often
+ * than the rest, as with the popular keys of a real workload. This is the generator of YCSB
+ * (Gray et al., "Quickly Generating Billion-Record Synthetic Databases"). The ranks are scrambled
+ * with a hash so the popular items are spread over the key space instead of being the first ones.
+ */
+public class ZipfianGenerator {
+  public static final double DEFAULT_THETA = 0.99;
+
+  private final long items;
+  private final double theta;
+  private final double zetan;
+  private final double alpha;
+  private final double eta;
+
+  /**
+   * Constructor to create a ZipfianGenerator. Takes time linear in the number of items.
+   * @param items The number of items, picked as indexes 0 to items - 1.
+   * @param theta The skew, higher is more skewed. YCSB uses 0.99.
+   */
+  public ZipfianGenerator(long items, double theta) {
+    this.items = items;
+    this.theta = theta;
+    this.zetan = zeta(items, theta);
+    this.alpha = 1.0 / (1.0 - theta);
+    this.eta = (1.0 - Math.pow(2.0 / items, 1.0 - theta)) / (1.0 - zeta(2, theta) / zetan);
+  }
+
+  /**
+   * @return The next item index. Safe to call from several threads.
+   */
+  public long next() {
+    return Math.floorMod(fnvHash(nextRank()), items);
+  }
+
+  private long nextRank() {
+    double u = ThreadLocalRandom.current().nextDouble();
+    double uz = u * zetan;
+    if (uz < 1.0) {
+      return 0;
+    }
+    if (uz < 1.0 + Math.pow(0.5, theta)) {
+      return 1;
+    }
+    return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1.0, alpha)));
+  }
+
+  private static double zeta(long n, double theta) {
+    double sum = 0.0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1.0 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+
+  /**
+   * 64-bit FNV-1a hash of a long, byte by byte.
+   */
+  private static long fnvHash(long value) {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < 8; i++) {
+      hash ^= value & 0xFF;
+      hash *= 0x100000001B3L;
+      value >>>= 8;
+    }
+    return hash;
+  }
+}